@@ -0,0 +1,34 @@
+package com.demo.db.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * 基准测试使用的临时目录，目录位置可以通过-Dbench.dir指定，以便在不同磁盘上比较
+ */
+class BenchFiles {
+    static File newDir(String prefix) throws IOException {
+        String base = System.getProperty("bench.dir");
+        if(base == null) {
+            return Files.createTempDirectory(prefix).toFile();
+        }
+        File parent = new File(base);
+        parent.mkdirs();
+        return Files.createTempDirectory(parent.toPath(), prefix).toFile();
+    }
+
+    static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if(files != null) {
+            for(File f : files) {
+                if(f.isDirectory()) {
+                    delete(f);
+                } else {
+                    f.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+}
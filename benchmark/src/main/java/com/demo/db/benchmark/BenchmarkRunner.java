@@ -0,0 +1,33 @@
+package com.demo.db.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * 基准测试入口
+ * 接受JMH的全部命令行参数，另外支持：
+ * -Dbench.threads=1,8,32  依次以这些线程数各运行一轮
+ * -Dbench.result=dir      JSON结果的输出目录，文件名为jmh-t{线程数}.json
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        String[] threads = System.getProperty("bench.threads", "1").split(",");
+        File resultDir = new File(System.getProperty("bench.result", "target/jmh"));
+        resultDir.mkdirs();
+        for(String t : threads) {
+            int n = Integer.parseInt(t.trim());
+            ChainedOptionsBuilder opt = new OptionsBuilder()
+                    .parent(cmd)
+                    .threads(n)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(resultDir, "jmh-t" + n + ".json").getPath());
+            new Runner(opt.build()).run();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.demo.db.benchmark;
+
+import com.demo.db.bachend.dm.logger.Logger;
+import com.demo.db.bachend.dm.logger.LoggerConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较不同日志格式(校验和算法)的追加与恢复吞吐
+ * 追加不fsync，只衡量校验和与拷贝的开销；恢复为打开日志后顺序读出全部日志
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogFormatBenchmark {
+    private static final int RECOVER_RECORDS = 20000;
+
+    @Param({"2", "3"})
+    public int format;
+
+    @Param({"64", "4096"})
+    public int recordSize;
+
+    private File dir;
+    private Logger appender;
+    private String recoverPath;
+    private byte[] record;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = BenchFiles.newDir("logformat");
+        record = new byte[recordSize];
+        ThreadLocalRandom.current().nextBytes(record);
+        appender = Logger.create(new File(dir, "append").getPath(), config());
+
+        // 恢复测试使用的日志，关闭校验和检查点，打开时校验整个文件
+        recoverPath = new File(dir, "recover").getPath();
+        Logger lg = Logger.create(recoverPath, config().checksumCheckpoint(Long.MAX_VALUE));
+        for(int i = 0; i < RECOVER_RECORDS; i ++) {
+            lg.log(record);
+        }
+        lg.close();
+    }
+
+    private LoggerConfig config() {
+        return LoggerConfig.defaults().fsync(false).format(format);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        appender.close();
+        BenchFiles.delete(dir);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void append() {
+        appender.log(record);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void recover(Blackhole bh) {
+        Logger lg = Logger.open(recoverPath, config().checksumCheckpoint(Long.MAX_VALUE));
+        byte[] log;
+        while((log = lg.next()) != null) {
+            bh.consume(log);
+        }
+        lg.close();
+    }
+}
@@ -0,0 +1,61 @@
+package com.demo.db.benchmark;
+
+import com.demo.db.bachend.dm.logger.Logger;
+import com.demo.db.bachend.dm.logger.LoggerConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LoggerImpl.log的吞吐与延迟，比较不同日志大小以及是否fsync
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoggerBenchmark {
+    @Param({"64", "512", "4096"})
+    public int recordSize;
+
+    @Param({"true", "false"})
+    public boolean fsync;
+
+    private File dir;
+    private Logger logger;
+    private byte[] record;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = BenchFiles.newDir("log");
+        logger = Logger.create(new File(dir, "bench").getPath(), LoggerConfig.defaults().fsync(fsync));
+        record = new byte[recordSize];
+        ThreadLocalRandom.current().nextBytes(record);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        logger.close();
+        BenchFiles.delete(dir);
+    }
+
+    @Benchmark
+    public void log() {
+        logger.log(record);
+    }
+}
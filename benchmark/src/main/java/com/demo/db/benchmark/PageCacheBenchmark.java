@@ -0,0 +1,75 @@
+package com.demo.db.benchmark;
+
+import com.demo.db.bachend.dm.page.Page;
+import com.demo.db.bachend.dm.page.PageX;
+import com.demo.db.bachend.dm.pageCache.PageCache;
+import com.demo.db.bachend.dm.pageCache.PageCacheImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PageCacheImpl.getPage的吞吐与延迟
+ * 数据文件的页数为缓存页数/hitRatio，均匀随机访问时命中率约为hitRatio
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PageCacheBenchmark {
+    @Param({"1024"})
+    public int cachePages;
+
+    @Param({"1.0", "0.9", "0.5", "0.1"})
+    public double hitRatio;
+
+    private File dir;
+    private PageCacheImpl pc;
+    private int pages;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = BenchFiles.newDir("pc");
+        String path = new File(dir, "bench").getPath();
+        pc = PageCache.create(path, (long) cachePages * PageCache.PAGE_SIZE);
+        pages = (int) Math.ceil(cachePages / hitRatio);
+        for(int i = 0; i < pages; i ++) {
+            pc.newPage(PageX.initRaw());
+        }
+        // 预热缓存
+        for(int i = 1; i <= Math.min(pages, cachePages); i ++) {
+            pc.getPage(i).release();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pc.close();
+        BenchFiles.delete(dir);
+    }
+
+    @Benchmark
+    public int getPage() throws Exception {
+        int pgNum = 1 + ThreadLocalRandom.current().nextInt(pages);
+        Page pg = pc.getPage(pgNum);
+        int fso = PageX.getFSO(pg);
+        pg.release();
+        return fso;
+    }
+}
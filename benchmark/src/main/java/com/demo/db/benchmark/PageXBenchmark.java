@@ -0,0 +1,54 @@
+package com.demo.db.benchmark;
+
+import com.demo.db.bachend.dm.page.Page;
+import com.demo.db.bachend.dm.page.PageImpl;
+import com.demo.db.bachend.dm.page.PageX;
+import com.demo.db.bachend.dm.pageIndex.PageIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PageX.insert的页内插入开销，含空闲空间索引的取出和放回，页满后重置，不涉及磁盘
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PageXBenchmark {
+    @Param({"16", "128", "1024"})
+    public int recordSize;
+
+    private Page page;
+    private PageIndex index;
+    private byte[] record;
+
+    @Setup
+    public void setup() {
+        page = new PageImpl(1, PageX.initRaw(), null);
+        index = new PageIndex();
+        index.add(page.getPageNumber(), PageX.getFreeSpace(page));
+        record = new byte[recordSize];
+    }
+
+    @Benchmark
+    public short insert() {
+        // 索引中只有这一页，放不下时重置，插入后再放回
+        if(index.select(recordSize) == null) {
+            page.getPageBuffer().duplicate().put(PageX.initRaw(), 0, 2);
+        }
+        return PageX.insert(page, record, index);
+    }
+}
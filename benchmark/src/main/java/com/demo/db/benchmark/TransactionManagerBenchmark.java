@@ -0,0 +1,61 @@
+package com.demo.db.benchmark;
+
+import com.demo.db.bachend.tm.TransactionManager;
+import com.demo.db.bachend.tm.TransactionManagerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TransactionManagerImpl的begin/commit与状态查询
+ * 状态变更总是fsync，需要比较不同磁盘时用-Dbench.dir指定目录
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransactionManagerBenchmark {
+    private File dir;
+    private TransactionManagerImpl tm;
+    private long lastTid;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = BenchFiles.newDir("tm");
+        tm = TransactionManager.create(new File(dir, "bench").getPath());
+        lastTid = tm.begin();
+        tm.commit(lastTid);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        tm.close();
+        BenchFiles.delete(dir);
+    }
+
+    @Benchmark
+    public long beginCommit() {
+        long tid = tm.begin();
+        tm.commit(tid);
+        return tid;
+    }
+
+    @Benchmark
+    public boolean isCommitted() {
+        return tm.isCommitted(lastTid);
+    }
+}
@@ -1,101 +1,400 @@
 package com.demo.db.bachend.common;
 
 import com.demo.db.bachend.err.Error;
+import com.demo.db.bachend.metrics.Counter;
+import com.demo.db.bachend.metrics.Histogram;
+import com.demo.db.bachend.metrics.MetricGroup;
+import com.demo.db.bachend.metrics.Metrics;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * AbstractCache实现一个引用计数策略的缓存
+ *
+ * 缓存按key分段(Segment)加锁，不同段之间的查找互不阻塞；
+ * 正在加载的资源以CompletableFuture登记，等待同一资源的线程
+ * 直接阻塞在该future上，加载完成后立即被唤醒，无需轮询。
+ *
+ * 引用计数降为0的资源仍留在缓存中，只有在缓存已满需要腾出位置时，
+ * 才由EvictionPolicy挑选一个未被引用的资源驱逐并写回。
  */
 public abstract class AbstractCache<T> {
-    private HashMap<Long, T> cache; //缓存的数据
-    private HashMap<Long, Integer> refers; //资源引用的个数
-    private HashMap<Long, Boolean> getting; //正在获取某资源的线程
+    private static final int SEGMENTS = 32; //分段数量，必须是2的幂
+    private static final int EVICT_RETRY = 16; //一次驱逐时最多尝试的候选者数量
 
-    private int maxResource; //缓存最大资源数量
-    private int count;  //缓存元素个数
-    private Lock lock;
+    private final Segment<T>[] segments;
+    private final int maxResource; //缓存最大资源数量
+    private final AtomicInteger count;  //缓存元素个数(包括正在加载的资源)
+    private final EvictionPolicy policy;
+
+    private final MetricGroup metrics;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+    private final Histogram loadLatency; // 未命中时加载资源的耗时(纳秒)
+
+    private static class Segment<T> {
+        final Lock lock = new ReentrantLock();
+        final HashMap<Long, T> cache = new HashMap<>(); //缓存的数据
+        final HashMap<Long, Integer> refers = new HashMap<>(); //资源引用的个数
+        final HashMap<Long, CompletableFuture<T>> getting = new HashMap<>(); //正在被获取的资源
+    }
 
     public AbstractCache(int maxResource) {
+        this(maxResource, new ClockPolicy(maxResource));
+    }
+
+    public AbstractCache(int maxResource, EvictionPolicy policy) {
         this.maxResource = maxResource;
-        cache = new HashMap<>();
-        refers = new HashMap<>();
-        getting = new HashMap<>();
-        count = 0;
-        lock = new ReentrantLock();
+        this.policy = policy;
+        this.count = new AtomicInteger(0);
+        // Java不能直接创建泛型数组，数组只在本类中使用，元素都是Segment<T>
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Segment<T>[] segs = new Segment[SEGMENTS];
+        for(int i = 0; i < SEGMENTS; i ++) {
+            segs[i] = new Segment<>();
+        }
+        this.segments = segs;
+        this.metrics = Metrics.newGroup(getClass().getSimpleName());
+        this.hits = metrics.counter("hits");
+        this.misses = metrics.counter("misses");
+        this.evictions = metrics.counter("evictions");
+        this.loadLatency = metrics.histogram("loadLatency");
+    }
+
+    private Segment<T> segmentFor(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return segments[(int)(h >>> 32) & (SEGMENTS - 1)];
     }
+
     protected T get(long key) throws Exception {
+        Segment<T> seg = segmentFor(key);
+        CompletableFuture<T> loading;
+        boolean reserved = false;
         while(true) {
-            lock.lock();
-            // 请求的资源正在被其他线程获取
-            if(getting.get(key) != null) {
-                lock.unlock();
-                try {
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    continue;
+            seg.lock.lock();
+            try {
+                // 资源已经在缓存中
+                T obj = seg.cache.get(key);
+                if(obj != null) {
+                    int ref = seg.refers.get(key);
+                    if(ref == 0) {
+                        policy.setEvictable(key, false);
+                    }
+                    seg.refers.put(key, ref + 1);
+                    policy.access(key);
+                    if(reserved) count.decrementAndGet();
+                    if(Metrics.ENABLED) hits.inc();
+                    return obj;
                 }
+                loading = seg.getting.get(key);
+                if(loading == null && reserved) {
+                    //若未能命中缓存，由当前线程负责加载
+                    loading = new CompletableFuture<>();
+                    seg.getting.put(key, loading);
+                    break;
+                }
+            } finally {
+                seg.lock.unlock();
+            }
+            if(loading == null) {
+                // 在段锁之外占位，必要时驱逐其他资源，之后重新查找
+                reserve();
+                reserved = true;
                 continue;
             }
-            // 资源已经在缓存中
-            if(cache.get(key) != null) {
-                T obj = cache.get(key);
-                refers.put(key, refers.get(key) + 1);
-                lock.unlock();
-                return obj;
+            if(reserved) {
+                count.decrementAndGet();
+                reserved = false;
             }
-            //当前资源已满
-            if(maxResource > 0 && count == maxResource) {
-                lock.unlock();
-                throw Error.CacheFullException;
+            // 请求的资源正在被其他线程获取，等待其完成后重新查找
+            try {
+                loading.join();
+            } catch (CompletionException ignore) {
+                // 加载失败，重新尝试由当前线程加载
             }
-            //若未能命中缓存
-            count++;
-            getting.put(key, true);
-            lock.unlock();
-            break;
         }
+        if(Metrics.ENABLED) misses.inc();
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
         T obj = null;
         try {
             obj = getForCache(key);
         } catch (Exception e) {
-            lock.lock();
-            count--;
-            getting.remove(key);
-            lock.unlock();
+            seg.lock.lock();
+            try {
+                seg.getting.remove(key);
+            } finally {
+                seg.lock.unlock();
+            }
+            count.decrementAndGet();
+            loading.completeExceptionally(e);
             throw new RuntimeException(e);
         }
-        lock.lock();
-        getting.remove(key);
-        cache.put(key, obj);
-        refers.put(key, 1);
-        lock.unlock();
+        if(Metrics.ENABLED) loadLatency.recordSince(start);
+        seg.lock.lock();
+        try {
+            seg.getting.remove(key);
+            seg.cache.put(key, obj);
+            seg.refers.put(key, 1);
+            policy.admit(key);
+        } finally {
+            seg.lock.unlock();
+        }
+        loading.complete(obj);
         return obj;
     }
 
     /**
-     * 释放一个资源
+     * get()的非阻塞版本，命中时返回已完成的future，否则在executor中加载
+     * 同一资源的并发请求合并为一次加载：后到者等待正在进行的加载完成后重新查找，
+     * 不占用线程。加载完成后才占用缓存位置，缓存已满且无法驱逐时以CacheFullException失败。
+     */
+    protected CompletableFuture<T> getAsync(long key, Executor executor) {
+        Segment<T> seg = segmentFor(key);
+        CompletableFuture<T> loading;
+        boolean owner = false;
+        seg.lock.lock();
+        try {
+            T obj = seg.cache.get(key);
+            if(obj != null) {
+                int ref = seg.refers.get(key);
+                if(ref == 0) {
+                    policy.setEvictable(key, false);
+                }
+                seg.refers.put(key, ref + 1);
+                policy.access(key);
+                if(Metrics.ENABLED) hits.inc();
+                return CompletableFuture.completedFuture(obj);
+            }
+            loading = seg.getting.get(key);
+            if(loading == null) {
+                loading = new CompletableFuture<>();
+                seg.getting.put(key, loading);
+                owner = true;
+            }
+        } finally {
+            seg.lock.unlock();
+        }
+        if(!owner) {
+            // 无论加载成功与否都重新查找，失败时由当前请求重新加载
+            return loading.handle((obj, e) -> null).thenCompose(ignore -> getAsync(key, executor));
+        }
+        if(Metrics.ENABLED) misses.inc();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<T> f = loading;
+        try {
+            executor.execute(() -> loadAsync(key, seg, f, result));
+        } catch (RuntimeException e) {
+            seg.lock.lock();
+            try {
+                seg.getting.remove(key);
+            } finally {
+                seg.lock.unlock();
+            }
+            f.completeExceptionally(e);
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private void loadAsync(long key, Segment<T> seg, CompletableFuture<T> loading, CompletableFuture<T> result) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        T obj = null;
+        Exception err = null;
+        try {
+            obj = getForCache(key);
+            if(Metrics.ENABLED) loadLatency.recordSince(start);
+        } catch (Exception e) {
+            err = e;
+        }
+        if(err == null) {
+            try {
+                reserve();
+            } catch (Exception e) {
+                releaseKeyForCache(obj);
+                err = e;
+            }
+        }
+        seg.lock.lock();
+        try {
+            seg.getting.remove(key);
+            if(err == null) {
+                seg.cache.put(key, obj);
+                seg.refers.put(key, 1);
+                policy.admit(key);
+            }
+        } finally {
+            seg.lock.unlock();
+        }
+        if(err != null) {
+            loading.completeExceptionally(err);
+            result.completeExceptionally(err);
+            return;
+        }
+        loading.complete(obj);
+        result.complete(obj);
+    }
+
+    /**
+     * 预读一组资源：载入缓存但不引用(引用数为0)，可随时被驱逐
+     * 已在缓存中或正在被加载的资源跳过。载入期间不占用缓存位置，
+     * 以免预读占满缓存使前台的get()失败；载入后缓存已满且无法驱逐时丢弃
+     */
+    protected void preload(long[] keys) {
+        List<Long> loading = new ArrayList<>();
+        List<CompletableFuture<T>> futures = new ArrayList<>();
+        for(long key : keys) {
+            Segment<T> seg = segmentFor(key);
+            seg.lock.lock();
+            try {
+                if(seg.cache.containsKey(key) || seg.getting.containsKey(key)) {
+                    continue;
+                }
+                CompletableFuture<T> f = new CompletableFuture<>();
+                seg.getting.put(key, f);
+                loading.add(key);
+                futures.add(f);
+            } finally {
+                seg.lock.unlock();
+            }
+        }
+        if(loading.isEmpty()) return;
+        long[] toLoad = new long[loading.size()];
+        for(int i = 0; i < toLoad.length; i ++) {
+            toLoad[i] = loading.get(i);
+        }
+        List<T> objs = null;
+        Exception err = null;
+        try {
+            objs = getForCache(toLoad);
+        } catch (Exception e) {
+            err = e;
+        }
+        for(int i = 0; i < toLoad.length; i ++) {
+            long key = toLoad[i];
+            boolean admitted = err == null && tryReserve();
+            Segment<T> seg = segmentFor(key);
+            seg.lock.lock();
+            try {
+                seg.getting.remove(key);
+                if(admitted) {
+                    seg.cache.put(key, objs.get(i));
+                    seg.refers.put(key, 0);
+                    policy.admit(key);
+                    policy.setEvictable(key, true);
+                }
+            } finally {
+                seg.lock.unlock();
+            }
+            if(err != null) {
+                futures.get(i).completeExceptionally(err);
+                continue;
+            }
+            if(!admitted) {
+                releaseKeyForCache(objs.get(i));
+            }
+            // 未被放入缓存时，等待者会重新查找并自行加载
+            futures.get(i).complete(objs.get(i));
+        }
+    }
+
+    // 为一个新资源占位，缓存已满时驱逐一个未被引用的资源
+    private void reserve() throws Exception {
+        while(true) {
+            int c = count.get();
+            if(maxResource > 0 && c >= maxResource) {
+                if(!evictOne()) {
+                    //当前资源已满且都在被引用
+                    throw Error.CacheFullException;
+                }
+                continue;
+            }
+            if(count.compareAndSet(c, c + 1)) {
+                return;
+            }
+        }
+    }
+
+    private boolean tryReserve() {
+        try {
+            reserve();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * 驱逐一个未被引用的资源。资源在段锁内移出缓存，写回在段锁之外进行，
+     * 不阻塞同一段上的其他查找；写回期间在getting中登记一个future，
+     * 同一资源的加载者等待写回完成后再加载，不会读到写回之前的旧数据
+     */
+    private boolean evictOne() {
+        for(int i = 0; i < EVICT_RETRY; i ++) {
+            long key = policy.evict();
+            if(key == EvictionPolicy.NONE) {
+                return false;
+            }
+            Segment<T> seg = segmentFor(key);
+            T obj;
+            CompletableFuture<T> evicting = new CompletableFuture<>();
+            seg.lock.lock();
+            try {
+                obj = seg.cache.get(key);
+                if(obj == null) continue;
+                int ref = seg.refers.get(key);
+                if(ref > 0) {
+                    // 选出后又被其他线程引用，重新交还给策略
+                    policy.admit(key);
+                    continue;
+                }
+                seg.refers.remove(key);
+                seg.cache.remove(key);
+                seg.getting.put(key, evicting);
+            } finally {
+                seg.lock.unlock();
+            }
+            try {
+                releaseKeyForCache(obj);
+            } finally {
+                seg.lock.lock();
+                try {
+                    seg.getting.remove(key);
+                } finally {
+                    seg.lock.unlock();
+                }
+                count.decrementAndGet();
+                evicting.complete(null);
+            }
+            if(Metrics.ENABLED) evictions.inc();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 释放一个资源，引用数降为0后资源仍留在缓存中，等待被驱逐
      * @param key
      */
     protected void release(long key) {
-        lock.lock();
+        Segment<T> seg = segmentFor(key);
+        seg.lock.lock();
         try{
-            int ref = refers.get(key) - 1;
+            int ref = seg.refers.get(key) - 1;
+            seg.refers.put(key, ref);
             if(ref == 0) {
-                T obj = cache.get(key);
-                releaseKeyForCache(obj);
-                refers.remove(key);
-                cache.remove(key);
-                count--;
-            } else {
-                refers.put(key, ref);
+                policy.setEvictable(key, true);
             }
         } finally {
-            lock.unlock();
+            seg.lock.unlock();
         }
     }
 
@@ -103,24 +402,61 @@ public abstract class AbstractCache<T> {
      * 关闭缓存，释放所有资源
      */
     protected void close() {
-        lock.lock();
-        try {
-            for(Map.Entry<Long, T> entry : cache.entrySet()) {
-                Long key = entry.getKey();
-                T obj = entry.getValue();
-                releaseKeyForCache(obj);
-                refers.remove(key);
-                cache.remove(key);
-                count = 0;
+        for(Segment<T> seg : segments) {
+            seg.lock.lock();
+            try {
+                List<Long> keys = new ArrayList<>(seg.cache.keySet());
+                for(long key : keys) {
+                    releaseKeyForCache(seg.cache.get(key));
+                    policy.remove(key);
+                }
+                count.addAndGet(-keys.size());
+                seg.cache.clear();
+                seg.refers.clear();
+            } finally {
+                seg.lock.unlock();
             }
-        } finally {
-            lock.unlock();
         }
+        Metrics.remove(metrics);
     }
+
+    /**
+     * 当前缓存中所有资源的快照，供检查点等后台任务遍历
+     */
+    protected List<T> snapshot() {
+        List<T> objs = new ArrayList<>();
+        for(Segment<T> seg : segments) {
+            seg.lock.lock();
+            try {
+                objs.addAll(seg.cache.values());
+            } finally {
+                seg.lock.unlock();
+            }
+        }
+        return objs;
+    }
+
+    /**
+     * 缓存的指标组，子类可在其中登记自己的指标
+     */
+    protected MetricGroup metrics() {
+        return metrics;
+    }
+
     /**
      * 当资源不在缓存时的获取行为
      */
     protected abstract T getForCache(long key) throws Exception;
+    /**
+     * 批量获取多个不在缓存中的资源，默认逐个获取，子类可合并为一次读取
+     */
+    protected List<T> getForCache(long[] keys) throws Exception {
+        List<T> objs = new ArrayList<>(keys.length);
+        for(long key : keys) {
+            objs.add(getForCache(key));
+        }
+        return objs;
+    }
     /**
      * 当资源被驱逐时的写回行为
      */
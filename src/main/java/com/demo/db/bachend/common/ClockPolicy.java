@@ -0,0 +1,117 @@
+package com.demo.db.bachend.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CLOCK替换策略
+ *
+ * 所有资源排成一个环，命中时只置位访问位(无锁)，
+ * 驱逐时时钟指针扫过环，清除访问位，遇到访问位为0且未被引用的资源即驱逐。
+ */
+public class ClockPolicy implements EvictionPolicy {
+    private static class Frame {
+        final long key;
+        final int slot;
+        volatile boolean referenced = true;
+        volatile boolean evictable;
+        Frame(long key, int slot) {
+            this.key = key;
+            this.slot = slot;
+        }
+    }
+
+    private final ConcurrentHashMap<Long, Frame> frames;
+    private final ArrayList<Frame> ring;
+    private final ArrayDeque<Integer> freeSlots;
+    private final Lock lock;
+    private int hand;
+
+    public ClockPolicy(int capacity) {
+        frames = new ConcurrentHashMap<>(Math.max(16, capacity));
+        ring = new ArrayList<>(Math.max(16, capacity));
+        freeSlots = new ArrayDeque<>();
+        lock = new ReentrantLock();
+    }
+
+    @Override
+    public void admit(long key) {
+        lock.lock();
+        try {
+            if(frames.containsKey(key)) return;
+            Frame f;
+            if(freeSlots.isEmpty()) {
+                f = new Frame(key, ring.size());
+                ring.add(f);
+            } else {
+                f = new Frame(key, freeSlots.poll());
+                ring.set(f.slot, f);
+            }
+            frames.put(key, f);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void access(long key) {
+        Frame f = frames.get(key);
+        if(f != null) {
+            f.referenced = true;
+        }
+    }
+
+    @Override
+    public void setEvictable(long key, boolean evictable) {
+        Frame f = frames.get(key);
+        if(f != null) {
+            f.evictable = evictable;
+        }
+    }
+
+    @Override
+    public long evict() {
+        lock.lock();
+        try {
+            int n = ring.size();
+            // 最多扫两圈：第一圈清除访问位，第二圈必能找到可驱逐者(若存在)
+            for(int i = 0; i < 2 * n; i ++) {
+                if(hand >= n) hand = 0;
+                Frame f = ring.get(hand);
+                hand ++;
+                if(f == null || !f.evictable) continue;
+                if(f.referenced) {
+                    f.referenced = false;
+                    continue;
+                }
+                removeFrame(f);
+                return f.key;
+            }
+            return NONE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(long key) {
+        lock.lock();
+        try {
+            Frame f = frames.get(key);
+            if(f != null) {
+                removeFrame(f);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removeFrame(Frame f) {
+        frames.remove(f.key);
+        ring.set(f.slot, null);
+        freeSlots.push(f.slot);
+    }
+}
@@ -0,0 +1,18 @@
+package com.demo.db.bachend.common;
+
+/**
+ * 缓存替换策略
+ *
+ * 策略只负责记录资源的访问情况并挑选被驱逐者，
+ * 资源是否仍被引用由AbstractCache通过setEvictable告知。
+ * 实现必须是线程安全的，并忽略不认识的key。
+ */
+public interface EvictionPolicy {
+    long NONE = Long.MIN_VALUE;
+
+    void admit(long key); //资源载入缓存，此时资源正被引用
+    void access(long key); //资源命中
+    void setEvictable(long key, boolean evictable); //资源引用数变为0/离开0
+    long evict(); //选出一个可驱逐的资源并将其移出策略，没有时返回NONE
+    void remove(long key); //资源被移出缓存
+}
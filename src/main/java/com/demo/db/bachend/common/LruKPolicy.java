@@ -0,0 +1,137 @@
+package com.demo.db.bachend.common;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LRU-K替换策略
+ *
+ * 记录每个资源最近K次访问的逻辑时间，驱逐倒数第K次访问最早的资源；
+ * 访问次数不足K次的资源视为无穷远，优先驱逐，其间按最近一次访问的先后排序。
+ * 被驱逐资源的访问历史会保留一段时间，再次载入时继续累计。
+ */
+public class LruKPolicy implements EvictionPolicy {
+    private static final int DEFAULT_K = 2;
+
+    private static class Node {
+        final long key;
+        final long[] history; //history[0]为最近一次访问，history[i]为倒数第i+1次，0表示没有
+        boolean evictable;
+        Node(long key, long[] history) {
+            this.key = key;
+            this.history = history;
+        }
+    }
+
+    private final int k;
+    private final HashMap<Long, Node> nodes;
+    private final TreeSet<Node> candidates; //可驱逐的资源
+    private final LinkedHashMap<Long, long[]> retained; //已驱逐资源的访问历史
+    private final Lock lock;
+    private long clock;
+
+    public LruKPolicy(int capacity) {
+        this(capacity, DEFAULT_K);
+    }
+
+    public LruKPolicy(int capacity, int k) {
+        this.k = k;
+        final int maxRetained = Math.max(16, capacity);
+        nodes = new HashMap<>();
+        retained = new LinkedHashMap<Long, long[]>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+                return size() > maxRetained;
+            }
+        };
+        candidates = new TreeSet<>((a, b) -> {
+            int c = Long.compare(a.history[k - 1], b.history[k - 1]);
+            if(c != 0) return c;
+            c = Long.compare(a.history[0], b.history[0]);
+            if(c != 0) return c;
+            return Long.compare(a.key, b.key);
+        });
+        lock = new ReentrantLock();
+    }
+
+    @Override
+    public void admit(long key) {
+        lock.lock();
+        try {
+            if(nodes.containsKey(key)) return;
+            long[] history = retained.remove(key);
+            Node n = new Node(key, history == null ? new long[k] : history);
+            touch(n);
+            nodes.put(key, n);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void access(long key) {
+        lock.lock();
+        try {
+            Node n = nodes.get(key);
+            if(n == null) return;
+            if(n.evictable) candidates.remove(n);
+            touch(n);
+            if(n.evictable) candidates.add(n);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void touch(Node n) {
+        System.arraycopy(n.history, 0, n.history, 1, k - 1);
+        n.history[0] = ++clock;
+    }
+
+    @Override
+    public void setEvictable(long key, boolean evictable) {
+        lock.lock();
+        try {
+            Node n = nodes.get(key);
+            if(n == null || n.evictable == evictable) return;
+            n.evictable = evictable;
+            if(evictable) {
+                candidates.add(n);
+            } else {
+                candidates.remove(n);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long evict() {
+        lock.lock();
+        try {
+            Node n = candidates.pollFirst();
+            if(n == null) return NONE;
+            nodes.remove(n.key);
+            retained.put(n.key, n.history);
+            return n.key;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(long key) {
+        lock.lock();
+        try {
+            Node n = nodes.remove(key);
+            if(n != null && n.evictable) {
+                candidates.remove(n);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
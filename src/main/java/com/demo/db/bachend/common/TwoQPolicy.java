@@ -0,0 +1,134 @@
+package com.demo.db.bachend.common;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 2Q替换策略
+ *
+ * A1in: 首次载入的资源，FIFO，容量约为缓存的1/4
+ * Am:   被再次访问过的热资源，LRU
+ * A1out: 从A1in驱逐的资源key(不含数据)，容量约为缓存的1/2，
+ *        其中的资源再次载入时直接进入Am
+ * 一次性扫描的页只会在A1in中停留，不会冲掉Am中的热页。
+ */
+public class TwoQPolicy implements EvictionPolicy {
+    private final int kIn;
+    private final int kOut;
+    private final LinkedHashSet<Long> a1in;
+    private final LinkedHashSet<Long> am;
+    private final LinkedHashSet<Long> a1out;
+    private final HashSet<Long> evictable;
+    private final Lock lock;
+
+    public TwoQPolicy(int capacity) {
+        kIn = Math.max(1, capacity / 4);
+        kOut = Math.max(1, capacity / 2);
+        a1in = new LinkedHashSet<>();
+        am = new LinkedHashSet<>();
+        a1out = new LinkedHashSet<>();
+        evictable = new HashSet<>();
+        lock = new ReentrantLock();
+    }
+
+    @Override
+    public void admit(long key) {
+        lock.lock();
+        try {
+            if(a1in.contains(key) || am.contains(key)) return;
+            if(a1out.remove(key)) {
+                am.add(key);
+            } else {
+                a1in.add(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void access(long key) {
+        lock.lock();
+        try {
+            // A1in中的资源不调整位置，Am中的资源移到最近使用端
+            if(am.remove(key)) {
+                am.add(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setEvictable(long key, boolean e) {
+        lock.lock();
+        try {
+            if(!a1in.contains(key) && !am.contains(key)) return;
+            if(e) {
+                evictable.add(key);
+            } else {
+                evictable.remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long evict() {
+        lock.lock();
+        try {
+            long key;
+            if(a1in.size() > kIn) {
+                key = pollEvictable(a1in);
+                if(key != NONE) {
+                    remember(key);
+                    return key;
+                }
+            }
+            key = pollEvictable(am);
+            if(key != NONE) return key;
+            key = pollEvictable(a1in);
+            if(key != NONE) remember(key);
+            return key;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long pollEvictable(LinkedHashSet<Long> queue) {
+        Iterator<Long> it = queue.iterator();
+        while(it.hasNext()) {
+            long key = it.next();
+            if(evictable.remove(key)) {
+                it.remove();
+                return key;
+            }
+        }
+        return NONE;
+    }
+
+    private void remember(long key) {
+        a1out.add(key);
+        if(a1out.size() > kOut) {
+            Iterator<Long> it = a1out.iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    @Override
+    public void remove(long key) {
+        lock.lock();
+        try {
+            a1in.remove(key);
+            am.remove(key);
+            evictable.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -1,71 +1,37 @@
 package com.demo.db.bachend.dm.logger;
 
-import com.demo.db.bachend.err.Error;
-import com.demo.db.bachend.utils.Panic;
-import com.demo.db.bachend.utils.Parser;
-
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-
 public interface Logger {
-    void log(byte[] data);
+    /**
+     * 写入一条日志，返回其LSN(日志结束的位置)，LSN随写入顺序单调递增
+     */
+    long log(byte[] data);
+    /**
+     * 保证LSN不超过lsn的日志都已落盘
+     */
+    void flush(long lsn);
     void truncate(long x) throws Exception;
     byte[] next();
     void rewind();
     void close();
     public static Logger create(String path) {
-        File f = new File(path + LoggerImpl.LOG_SUFFIX);
-        try{
-            if(!f.createNewFile()) {
-                Panic.panic(Error.FileExistsException);
-            }
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
-        if(!f.canRead() || !f.canWrite()) {
-            Panic.panic(Error.FileCannotRWException);
-        }
-        FileChannel fc = null;
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
-        } catch (FileNotFoundException e) {
-            Panic.panic(e);
-        }
-        ByteBuffer buf = ByteBuffer.wrap(Parser.int2Byte(0));
-        try {
-            fc.position(0);
-            fc.write(buf);
-            fc.force(false);
-        } catch (IOException e) {
-            Panic.panic(e);
+        return create(path, LoggerConfig.defaults());
+    }
+
+    public static Logger create(String path, LoggerConfig config) {
+        if(config.segmentSize > 0) {
+            return SegmentedLogger.create(path, config);
         }
-        return new LoggerImpl(raf, fc, 0);
+        return LoggerImpl.create(path, config);
     }
 
     public static Logger open(String path) {
-        File f = new File(path + LoggerImpl.LOG_SUFFIX);
-        if(!f.exists()) {
-            Panic.panic(Error.FileNotExistsException);
-        }
-        if(!f.canRead() || !f.canWrite()) {
-            Panic.panic(Error.FileCannotRWException);
-        }
-        FileChannel fc = null;
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
-        } catch (FileNotFoundException e) {
-            Panic.panic(e);
+        return open(path, LoggerConfig.defaults());
+    }
+
+    public static Logger open(String path, LoggerConfig config) {
+        if(SegmentedLogger.exists(path)) {
+            return SegmentedLogger.open(path, config);
         }
-        LoggerImpl lg = new LoggerImpl(raf, fc);
-        lg.init();
-        return lg;
+        return LoggerImpl.open(path, config);
     }
 }
@@ -0,0 +1,75 @@
+package com.demo.db.bachend.dm.logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日志的可选配置
+ *
+ * 组提交(group commit)：并发调用log()的线程加入同一批次，
+ * 由其中一个线程把整批日志一次写入并只fsync一次，其余线程等待落盘后返回。
+ * batchSize    批次达到该条数时立即落盘
+ * flushInterval 批次未满时最多等待其他线程加入的时间，为0时不等待，
+ *              只合并上一次fsync期间到达的日志
+ * fsync        每批写入后是否fsync，关闭后日志只写入操作系统缓存，
+ *              崩溃时可能丢失，仅用于测试和基准测试
+ * checksumCheckpointInterval 每写入这么多字节的日志推进一次校验和检查点，
+ *              打开日志时只校验最后一个检查点之后的部分
+ * format       新建日志文件使用的格式，打开已有文件时以文件头中的版本为准
+ *              FORMAT_V2 逐字节乘加的校验和
+ *              FORMAT_V3 CRC32校验和，由JIT内联为硬件指令，默认
+ * segmentSize  大于0时日志分段存储，每段写满该字节数后切换到新的段文件，
+ *              检查点之前的整段可以删除，见SegmentedLogger
+ */
+public class LoggerConfig {
+    public static final int FORMAT_V2 = LoggerImpl.VERSION_2;
+    public static final int FORMAT_V3 = LoggerImpl.VERSION_3;
+
+    int batchSize = 1;
+    long flushIntervalNanos = 0;
+    boolean fsync = true;
+    long checksumCheckpointInterval = 4L << 20;
+    int format = FORMAT_V3;
+    long segmentSize = 0;
+
+    public static LoggerConfig defaults() {
+        return new LoggerConfig();
+    }
+
+    public LoggerConfig groupCommit(int batchSize, long flushInterval, TimeUnit unit) {
+        if(batchSize < 1 || flushInterval < 0) {
+            throw new IllegalArgumentException("Invalid group commit config!");
+        }
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = unit.toNanos(flushInterval);
+        return this;
+    }
+
+    public LoggerConfig fsync(boolean fsync) {
+        this.fsync = fsync;
+        return this;
+    }
+
+    public LoggerConfig checksumCheckpoint(long intervalBytes) {
+        if(intervalBytes < 0) {
+            throw new IllegalArgumentException("Invalid checkpoint interval!");
+        }
+        this.checksumCheckpointInterval = intervalBytes;
+        return this;
+    }
+
+    public LoggerConfig format(int format) {
+        if(format != FORMAT_V2 && format != FORMAT_V3) {
+            throw new IllegalArgumentException("Invalid log format!");
+        }
+        this.format = format;
+        return this;
+    }
+
+    public LoggerConfig segmented(long segmentSize) {
+        if(segmentSize < 0) {
+            throw new IllegalArgumentException("Invalid segment size!");
+        }
+        this.segmentSize = segmentSize;
+        return this;
+    }
+}
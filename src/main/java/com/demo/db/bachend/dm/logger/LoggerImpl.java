@@ -1,30 +1,60 @@
 package com.demo.db.bachend.dm.logger;
 
 import com.demo.db.bachend.err.Error;
+import com.demo.db.bachend.metrics.Counter;
+import com.demo.db.bachend.metrics.Histogram;
+import com.demo.db.bachend.metrics.MetricGroup;
+import com.demo.db.bachend.metrics.Metrics;
+import com.demo.db.bachend.utils.Codec;
 import com.demo.db.bachend.utils.Panic;
-import com.demo.db.bachend.utils.Parser;
-import javafx.scene.Parent;
 
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
-import com.google.common.primitives.Bytes;
 
 /**
  * 日志文件
  *
  * 日志文件标准格式为：
- * [XChecksum] [Log1] [Log2] ... [LogN] [BadTail]
+ * [Header] [Log1] [Log2] ... [LogN] [BadTail]
+ *
+ * 版本1的Header只有XChecksum：
+ * [XChecksum]
  * XChecksum 为后续所有日志计算的Checksum，int类型
  *
+ * 版本2的Header额外记录校验和检查点：
+ * [Magic] [Version] [XChecksum] [CkptPosition] [CkptChecksum]
+ * Magic 4字节 固定为"MYLG"，Version 4字节
+ * CkptPosition 8字节 检查点在文件中的位置，其之前的日志都已落盘并校验过，
+ *   检查点只推进到已fsync的位置(durableLsn)，未开启fsync时等flush()之后才推进
+ * CkptChecksum 4字节 检查点之前所有日志的XChecksum
+ * 打开日志时只需从检查点开始校验尾部，不必扫描整个文件。
+ * 没有Magic的文件按版本1读取，仍以版本1的格式追加。
+ * 版本3的Header与版本2相同，只是校验和算法不同。
+ *
  * 每条正确日志的格式为：
  * [Size] [Checksum] [Data]
  * Size 4字节int 标识Data长度
  * Checksum 4字节int
+ *
+ * 版本1、2中Checksum为Data逐字节乘加的结果，XChecksum对每条日志的全部字节再做一遍；
+ * 版本3中Checksum为Data的CRC32，XChecksum只需把每条日志的Checksum依次乘加起来，
+ * 每个字节只计算一次。
+ *
+ * 写入采用组提交：log()把日志加入当前批次，由一个线程(leader)写入整批日志、
+ * 更新XChecksum并只fsync一次，批次内的调用者在其落盘后才返回。
+ *
+ * LSN为日志结束处在文件中的位置。
  */
 public class LoggerImpl implements Logger{
     private static final int SEED = 13331;
@@ -32,27 +62,150 @@ public class LoggerImpl implements Logger{
     private static final int OF_CHECKSUM = OF_SIZE + 4;
     private static final int OF_DATA = OF_CHECKSUM + 4;
 
+    private static final int MAGIC = 0x4D594C47; // "MYLG"
+    static final int VERSION_1 = 1;
+    static final int VERSION_2 = 2;
+    static final int VERSION_3 = 3;
+    private static final int LEN_HEADER_V1 = 4;
+    private static final int OF_MAGIC = 0;
+    private static final int OF_VERSION = OF_MAGIC + 4;
+    private static final int OF_XCHECKSUM = OF_VERSION + 4;
+    private static final int OF_CKPT_POSITION = OF_XCHECKSUM + 4;
+    private static final int OF_CKPT_CHECKSUM = OF_CKPT_POSITION + 8;
+    private static final int LEN_HEADER_V2 = OF_CKPT_CHECKSUM + 4;
+
+    private static final int READ_CHUNK = 1 << 16; // 扫描日志时每次读取的大小
+
     public static final String LOG_SUFFIX = ".log";
 
+    private static final ThreadLocal<CRC32> CRC = ThreadLocal.withInitial(CRC32::new);
+
     private RandomAccessFile file;
     private FileChannel fc;
     private Lock lock;
+    private Condition flushCond;
 
     private long position;// 当前日志指针的位置
-    private long fileSize;
+    private volatile long fileSize;
     private int xCheckSum;
 
-    LoggerImpl(RandomAccessFile raf, FileChannel fc) {
+    private int version;
+    private int headerLen;
+    private final long ckptInterval; // 两个校验和检查点之间的日志字节数
+    private long ckptPosition;
+    private int ckptCheckSum;
+    private long nextCkptPosition = -1; // 等待落盘后成为检查点的位置，-1表示没有
+    private int nextCkptCheckSum;
+    private int batchStartCheckSum; // 本批日志写入前的XChecksum
+
+    private byte[] readArr; // 扫描日志的读缓冲区
+    private long readStart; // 读缓冲区对应的文件位置
+    private int readLen; // 读缓冲区中的有效字节数
+
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final boolean fsync;
+    private List<byte[]> pending; // 等待落盘的批次
+    private List<byte[]> spare; // 上一批写完后留作复用的列表
+    private ByteBuffer writeBuf; // leader拼接整批日志的缓冲区，按需扩容后复用
+    private final ByteBuffer headerBuf; // 只由leader或初始化时使用
+    private long appendSeq; // 已加入批次的日志序号
+    private long flushedSeq; // 已落盘的日志序号
+    private boolean flushing; // 是否有leader正在写入
+    private long appendPos; // 已加入批次的日志的结束位置
+    private volatile long durableLsn; // 已落盘的日志的结束位置
+
+    private final MetricGroup metrics;
+    private final Counter records;
+    private final Counter bytes;
+    private final Histogram batchRecords; // 每批的日志条数
+    private final Histogram fsyncLatency;
+    private final Histogram logLatency; // log()的耗时，包括等待组提交
+
+    LoggerImpl(RandomAccessFile raf, FileChannel fc, LoggerConfig config) {
         this.file = raf;
         this.fc = fc;
+        this.batchSize = config.batchSize;
+        this.flushIntervalNanos = config.flushIntervalNanos;
+        this.fsync = config.fsync;
+        this.ckptInterval = config.checksumCheckpointInterval;
         lock = new ReentrantLock();
+        flushCond = lock.newCondition();
+        pending = new ArrayList<>();
+        spare = new ArrayList<>();
+        writeBuf = ByteBuffer.allocate(0);
+        headerBuf = ByteBuffer.allocate(LEN_HEADER_V2);
+        readArr = new byte[READ_CHUNK];
+        metrics = Metrics.newGroup("Logger");
+        records = metrics.counter("records");
+        bytes = metrics.counter("bytes");
+        batchRecords = metrics.histogram("batchRecords");
+        fsyncLatency = metrics.histogram("fsyncLatency");
+        logLatency = metrics.histogram("logLatency");
     }
 
-    LoggerImpl(RandomAccessFile raf, FileChannel fc, int checkSum) {
-        this.file = raf;
-        this.fc = fc;
-        this.xCheckSum = checkSum;
-        lock = new ReentrantLock();
+    static LoggerImpl create(String path, LoggerConfig config) {
+        File f = new File(path + LOG_SUFFIX);
+        try{
+            if(!f.createNewFile()) {
+                Panic.panic(Error.FileExistsException);
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        if(!f.canRead() || !f.canWrite()) {
+            Panic.panic(Error.FileCannotRWException);
+        }
+        FileChannel fc = null;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(f, "rw");
+            fc = raf.getChannel();
+        } catch (FileNotFoundException e) {
+            Panic.panic(e);
+        }
+        ByteBuffer buf = initialHeader(config.format);
+        try {
+            fc.write(buf, 0);
+            fc.force(false);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        LoggerImpl lg = new LoggerImpl(raf, fc, config);
+        lg.init();
+        return lg;
+    }
+
+    static LoggerImpl open(String path, LoggerConfig config) {
+        File f = new File(path + LOG_SUFFIX);
+        if(!f.exists()) {
+            Panic.panic(Error.FileNotExistsException);
+        }
+        if(!f.canRead() || !f.canWrite()) {
+            Panic.panic(Error.FileCannotRWException);
+        }
+        FileChannel fc = null;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(f, "rw");
+            fc = raf.getChannel();
+        } catch (FileNotFoundException e) {
+            Panic.panic(e);
+        }
+        LoggerImpl lg = new LoggerImpl(raf, fc, config);
+        lg.init();
+        return lg;
+    }
+
+    // 新建日志文件的Header
+    static ByteBuffer initialHeader(int version) {
+        ByteBuffer buf = ByteBuffer.allocate(LEN_HEADER_V2);
+        Codec.putInt(buf, OF_MAGIC, MAGIC);
+        Codec.putInt(buf, OF_VERSION, version);
+        Codec.putInt(buf, OF_XCHECKSUM, 0);
+        Codec.putLong(buf, OF_CKPT_POSITION, LEN_HEADER_V2);
+        Codec.putInt(buf, OF_CKPT_CHECKSUM, 0);
+        return buf;
     }
 
     public void init() {
@@ -62,134 +215,370 @@ public class LoggerImpl implements Logger{
         } catch (IOException e) {
             Panic.panic(e);
         }
-        if(size < 4) {
+        if(size < LEN_HEADER_V1) {
             Panic.panic(Error.BadLogFileException);
         }
-        ByteBuffer raw = ByteBuffer.allocate(4);
+        headerBuf.clear();
         try {
-            fc.position(0);
-            fc.read(raw);
+            while(headerBuf.hasRemaining()) {
+                if(fc.read(headerBuf, headerBuf.position()) < 0) break;
+            }
         } catch (IOException e) {
             Panic.panic(e);
         }
-        int xCheckSum = Parser.parseInt(raw.array());
         this.fileSize = size;
-        this.xCheckSum = xCheckSum;
+        if(hasVersionedHeader(size)) {
+            version = Codec.getInt(headerBuf, OF_VERSION);
+            headerLen = LEN_HEADER_V2;
+            xCheckSum = Codec.getInt(headerBuf, OF_XCHECKSUM);
+            ckptPosition = Codec.getLong(headerBuf, OF_CKPT_POSITION);
+            ckptCheckSum = Codec.getInt(headerBuf, OF_CKPT_CHECKSUM);
+        } else {
+            version = VERSION_1;
+            headerLen = LEN_HEADER_V1;
+            xCheckSum = Codec.getInt(headerBuf, 0);
+            ckptPosition = LEN_HEADER_V1;
+            ckptCheckSum = 0;
+        }
         checkAndRemoveBadTail();
     }
-    // 检查日志并移除bad tail
+    private boolean hasVersionedHeader(long size) {
+        if(size < LEN_HEADER_V2 || headerBuf.position() < LEN_HEADER_V2) return false;
+        if(Codec.getInt(headerBuf, OF_MAGIC) != MAGIC) return false;
+        int v = Codec.getInt(headerBuf, OF_VERSION);
+        if(v != VERSION_2 && v != VERSION_3) {
+            Panic.panic(Error.BadLogFileException);
+        }
+        long ckpt = Codec.getLong(headerBuf, OF_CKPT_POSITION);
+        return ckpt >= LEN_HEADER_V2 && ckpt <= size;
+    }
+    // 从检查点开始检查日志并移除bad tail，检查点之前的日志在写入检查点时已落盘
     private void checkAndRemoveBadTail() {
-        rewind();
-        int xCheck = 0;
+        position = ckptPosition;
+        int xCheck = ckptCheckSum;
         while (true) {
-            byte[] log = internNext();
-            if(log == null) break;
-            xCheck = calCheckSum(xCheck, log);
+            int off = internNext();
+            if(off < 0) break;
+            xCheck = foldCheckSum(xCheck, readArr, off, OF_DATA + Codec.getInt(readArr, off + OF_SIZE));
         }
         if(xCheck != xCheckSum) {
             Panic.panic(Error.BadLogFileException);
         }
+        long end = position;
         try {
-            truncate(position);
-        } catch (Exception e) {
-            Panic.panic(e);
-        }
-        try {
-            file.seek(position);
+            truncateTo(end, xCheck);
+            file.seek(end);
         } catch (IOException e) {
             Panic.panic(e);
         }
+        fileSize = end;
+        appendPos = end;
+        durableLsn = end;
         rewind();
     }
+    //计算单条日志Data的校验和
+    private int recordCheckSum(byte[] data, int off, int len) {
+        if(version == VERSION_3) {
+            CRC32 crc = CRC.get();
+            crc.reset();
+            crc.update(data, off, len);
+            return (int) crc.getValue();
+        }
+        return calCheckSum(0, data, off, len);
+    }
+    //把一条完整日志计入全部日志的校验和
+    private int foldCheckSum(int xCheck, byte[] log, int off, int len) {
+        if(version == VERSION_3) {
+            return xCheck * SEED + Codec.getInt(log, off + OF_CHECKSUM);
+        }
+        return calCheckSum(xCheck, log, off, len);
+    }
     //计算日志校验和
-    private int calCheckSum(int xCheck, byte[] log) {
-        for(byte l : log) {
-            xCheck = xCheck * SEED + l;
+    private int calCheckSum(int xCheck, byte[] log, int off, int len) {
+        for(int i = off; i < off + len; i ++) {
+            xCheck = xCheck * SEED + log[i];
         }
         return xCheck;
     }
-    private byte[] internNext() {
-        if(position + OF_DATA >= fileSize) {
-            return null;
+    /**
+     * 读取position处的一条日志并前移position
+     * 日志读入readArr，返回其在readArr中的偏移，没有完整正确的日志时返回-1
+     */
+    private int internNext() {
+        if(position + OF_DATA > fileSize) {
+            return -1;
         }
-        ByteBuffer tmp = ByteBuffer.allocate(4);
-        try{
-            fc.position(position);
-            fc.read(tmp);
-        } catch (IOException e) {
-            Panic.panic(e);
+        if(!fill(position, OF_DATA)) {
+            return -1;
+        }
+        int size = Codec.getInt(readArr, (int)(position - readStart) + OF_SIZE);
+        if(size < 0 || position + size + OF_DATA > fileSize) {
+            return -1;
         }
-        int size = Parser.parseInt(tmp.array());
-        if(position + size + OF_DATA > fileSize) {
-            return null;
+        if(!fill(position, OF_DATA + size)) {
+            return -1;
         }
-        ByteBuffer buf = ByteBuffer.allocate(OF_DATA + size);
+        int off = (int)(position - readStart);
+        int checkSum1 = recordCheckSum(readArr, off + OF_DATA, size);
+        int checkSum2 = Codec.getInt(readArr, off + OF_CHECKSUM);
+        if(checkSum1 != checkSum2) {
+            return -1;
+        }
+        position += OF_DATA + size;
+        return off;
+    }
+    // 保证文件[pos, pos+len)已在读缓冲区中，不在时从pos开始读入一大块
+    private boolean fill(long pos, int len) {
+        if(pos >= readStart && pos + len <= readStart + readLen) {
+            return true;
+        }
+        if(readArr.length < len) {
+            readArr = new byte[len];
+        }
+        int want = (int) Math.min(readArr.length, fileSize - pos);
+        ByteBuffer buf = ByteBuffer.wrap(readArr, 0, want);
         try {
-            fc.position(position);
-            fc.read(buf);
+            while(buf.hasRemaining()) {
+                if(fc.read(buf, pos + buf.position()) < 0) break;
+            }
         } catch (IOException e) {
             Panic.panic(e);
         }
-        byte[] log = buf.array();
-        int checkSum1 = calCheckSum(0, log);
-        int checkSum2 = Parser.parseInt(Arrays.copyOfRange(log, OF_CHECKSUM, OF_DATA));
-        if(checkSum1 != checkSum2) {
-            return null;
-        }
-        position += log.length;
-        return log;
+        readStart = pos;
+        readLen = buf.position();
+        return readLen >= len;
     }
     //单条日志组织形式[size][checkSum][data]
     private byte[] wrapLog(byte[] data) {
-        byte[] checkSum = Parser.int2Byte(calCheckSum(0, data));
-        byte[] size = Parser.int2Byte(data.length);
-        return Bytes.concat(size, checkSum, data);
+        byte[] log = new byte[OF_DATA + data.length];
+        Codec.putInt(log, OF_SIZE, data.length);
+        Codec.putInt(log, OF_CHECKSUM, recordCheckSum(data, 0, data.length));
+        System.arraycopy(data, 0, log, OF_DATA, data.length);
+        return log;
     }
-    //更新全部日志的检验和
-    private void updateXCheckSum(byte[] log) {
-        this.xCheckSum = calCheckSum(this.xCheckSum, log);
+    //写入一批日志，更新全部日志的检验和，整批只fsync一次
+    private long writeBatch(List<byte[]> batch) {
+        int total = 0;
+        for(byte[] log : batch) {
+            total += log.length;
+        }
+        if(writeBuf.capacity() < total) {
+            writeBuf = ByteBuffer.allocate(Math.max(total, writeBuf.capacity() * 2));
+        }
+        ByteBuffer buf = writeBuf;
+        buf.clear();
+        batchStartCheckSum = xCheckSum;
+        for(byte[] log : batch) {
+            buf.put(log);
+            this.xCheckSum = foldCheckSum(this.xCheckSum, log, 0, log.length);
+        }
+        buf.flip();
         try {
-            fc.position(0);
-            fc.write(ByteBuffer.wrap(Parser.int2Byte(xCheckSum)));
-            fc.force(false);
+            long pos = fileSize;
+            while(buf.hasRemaining()) {
+                pos += fc.write(buf, pos);
+            }
+            fc.write(header(), 0);
+            if(fsync) {
+                force();
+            }
+            fileSize = pos;
+            if(Metrics.ENABLED) {
+                records.add(batch.size());
+                bytes.add(total);
+                batchRecords.record(batch.size());
+            }
         } catch (IOException e) {
             Panic.panic(e);
         }
-
+        return fileSize;
+    }
+    private void force() throws IOException {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        fc.force(false);
+        if(Metrics.ENABLED) fsyncLatency.recordSince(start);
     }
+    /**
+     * 构造本批写入后的Header，距上一检查点足够远时把本批的起点记为下一个检查点，
+     * 等它之前的日志都已落盘(不超过durableLsn)后才写入Header。
+     * 开启fsync时之前的批次都已fsync，本批的起点立即成为检查点
+     */
+    private ByteBuffer header() {
+        if(version != VERSION_1) {
+            if(nextCkptPosition < 0 && fileSize - ckptPosition >= ckptInterval) {
+                nextCkptPosition = fileSize;
+                nextCkptCheckSum = batchStartCheckSum;
+            }
+            if(nextCkptPosition >= 0 && nextCkptPosition <= durableLsn) {
+                ckptPosition = nextCkptPosition;
+                ckptCheckSum = nextCkptCheckSum;
+                nextCkptPosition = -1;
+            }
+        }
+        return encodeHeader();
+    }
+    private ByteBuffer encodeHeader() {
+        headerBuf.clear();
+        if(version == VERSION_1) {
+            Codec.putInt(headerBuf, 0, xCheckSum);
+            headerBuf.limit(LEN_HEADER_V1);
+            return headerBuf;
+        }
+        Codec.putInt(headerBuf, OF_MAGIC, MAGIC);
+        Codec.putInt(headerBuf, OF_VERSION, version);
+        Codec.putInt(headerBuf, OF_XCHECKSUM, xCheckSum);
+        Codec.putLong(headerBuf, OF_CKPT_POSITION, ckptPosition);
+        Codec.putInt(headerBuf, OF_CKPT_CHECKSUM, ckptCheckSum);
+        return headerBuf;
+    }
+
     @Override
-    public void log(byte[] data) {
+    public long log(byte[] data) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
         byte[] log = wrapLog(data);
-        ByteBuffer buf = ByteBuffer.wrap(log);
         lock.lock();
         try {
-            fc.position(fc.size());
-            fc.write(buf);
+            pending.add(log);
+            long seq = ++appendSeq;
+            appendPos += log.length;
+            long lsn = appendPos;
+            if(pending.size() >= batchSize) {
+                flushCond.signalAll();
+            }
+            while(flushedSeq < seq) {
+                if(flushing) {
+                    flushCond.awaitUninterruptibly();
+                    continue;
+                }
+                // 等待更多日志加入批次，直到批次已满或超时
+                long nanos = flushIntervalNanos;
+                while(!flushing && flushedSeq < seq && pending.size() < batchSize && nanos > 0) {
+                    try {
+                        nanos = flushCond.awaitNanos(nanos);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        nanos = 0;
+                    }
+                }
+                if(flushing || flushedSeq >= seq) {
+                    continue;
+                }
+                // 成为leader，取走当前批次并在锁外写入
+                List<byte[]> batch = pending;
+                long batchEnd = appendSeq;
+                pending = spare;
+                flushing = true;
+                long end = -1;
+                lock.unlock();
+                try {
+                    end = writeBatch(batch);
+                } finally {
+                    lock.lock();
+                    flushing = false;
+                }
+                if(fsync && end > durableLsn) {
+                    durableLsn = end;
+                }
+                batch.clear();
+                spare = batch;
+                flushedSeq = batchEnd;
+                flushCond.signalAll();
+            }
+            if(Metrics.ENABLED) logLatency.recordSince(start);
+            return lsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void flush(long lsn) {
+        if(lsn <= durableLsn) {
+            return;
+        }
+        // 未开启fsync时log()只写入操作系统缓存，在此补一次force
+        long size = fileSize;
+        try {
+            force();
         } catch (IOException e) {
             Panic.panic(e);
+        }
+        lock.lock();
+        try {
+            if(size > durableLsn) {
+                durableLsn = size;
+            }
         } finally {
             lock.unlock();
         }
-        updateXCheckSum(log);
     }
 
+    /**
+     * 截断到x处，x必须是一条日志的结尾。
+     * 重新计算截断后的XChecksum并写回Header，检查点被截掉时退回到Header之后
+     */
     @Override
     public void truncate(long x) throws Exception {
         lock.lock();
         try {
-            fc.truncate(x);
+            if(x >= fileSize) {
+                truncateTo(x, xCheckSum);
+                return;
+            }
+            if(ckptPosition > x) {
+                ckptPosition = headerLen;
+                ckptCheckSum = 0;
+            }
+            long saved = position;
+            fileSize = x;
+            position = ckptPosition;
+            int xCheck = ckptCheckSum;
+            while(position < x) {
+                int off = internNext();
+                if(off < 0) break;
+                xCheck = foldCheckSum(xCheck, readArr, off, OF_DATA + Codec.getInt(readArr, off + OF_SIZE));
+            }
+            if(position != x) {
+                // x不在日志边界上
+                Panic.panic(Error.BadLogFileException);
+            }
+            position = Math.min(saved, x);
+            truncateTo(x, xCheck);
         } finally {
             lock.unlock();
         }
     }
 
+    // 截断文件并更新相关位置，xCheck为x之前所有日志的XChecksum，文件变短时重写Header
+    private void truncateTo(long x, int xCheck) throws IOException {
+        boolean shrink = file.length() > x;
+        fc.truncate(x);
+        fileSize = Math.min(fileSize, x);
+        appendPos = Math.min(appendPos, x);
+        durableLsn = Math.min(durableLsn, x);
+        readLen = 0;
+        if(ckptPosition > x) {
+            ckptPosition = headerLen;
+            ckptCheckSum = 0;
+        }
+        if(nextCkptPosition > x) {
+            nextCkptPosition = -1;
+        }
+        xCheckSum = xCheck;
+        if(shrink) {
+            fc.write(encodeHeader(), 0);
+            fc.force(false);
+        }
+    }
+
     @Override
     public byte[] next() {
         lock.lock();
         try {
-            byte[] log = internNext();
-            if(log == null) return null;
-            return Arrays.copyOfRange(log, OF_DATA, log.length);
+            int off = internNext();
+            if(off < 0) return null;
+            int size = Codec.getInt(readArr, off + OF_SIZE);
+            return Arrays.copyOfRange(readArr, off + OF_DATA, off + OF_DATA + size);
         } finally {
             lock.unlock();
         }
@@ -197,11 +586,22 @@ public class LoggerImpl implements Logger{
 
     @Override
     public void rewind() {
-        position = 4;
+        position = headerLen;
+    }
+
+    // 日志文件当前的长度，即下一条日志写入的位置
+    long size() {
+        return fileSize;
+    }
+
+    // 把读指针移到文件中的某个位置，该位置必须是一条日志的开头
+    void seek(long pos) {
+        position = Math.max(pos, headerLen);
     }
 
     @Override
     public void close() {
+        Metrics.remove(metrics);
         try{
             fc.close();
             file.close();
@@ -0,0 +1,393 @@
+package com.demo.db.bachend.dm.logger;
+
+import com.demo.db.bachend.err.Error;
+import com.demo.db.bachend.utils.Codec;
+import com.demo.db.bachend.utils.Panic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * 分段日志
+ *
+ * 日志由一组段文件组成，文件名为 path.段号.log，段号从1开始递增，
+ * 每个段都是一个独立的LoggerImpl格式的日志文件，当前段写满segmentSize后切换到新段。
+ *
+ * 日志中的位置(也是log()返回的LSN)用一个long表示：[段号 24位] [段内偏移 40位]
+ *
+ * 检查点文件 path.ckpt 记录重放日志的起始位置：
+ * [Position] [Checksum]
+ * Position 8字节，Checksum 4字节 为Position的CRC32，用于识别损坏的检查点文件
+ * 检查点先写入临时文件再原子地重命名，不会留下写了一半的检查点；
+ * 重命名后fsync所在目录，之后才删除旧段，崩溃后不会出现旧检查点指向已删除的段。
+ * 新建段后同样fsync目录，已落盘的日志不会因为目录项丢失而丢失。
+ * 检查点所在段之前的段不再需要，写入检查点后即被删除；
+ * 打开日志时只打开并校验检查点所在段及之后的段，rewind()后从检查点开始读取。
+ *
+ * 使用方式：先用mark()取得当前日志末尾的位置，再把所有脏页写回，
+ * 最后调用checkpoint(mark)。
+ */
+public class SegmentedLogger implements Logger {
+    public static final String CKPT_SUFFIX = ".ckpt";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    private static final int LEN_CKPT = 12;
+    private static final boolean WINDOWS = System.getProperty("os.name", "").startsWith("Windows");
+
+    private final String path;
+    private final LoggerConfig config;
+    private final long segmentSize;
+    private final ReadWriteLock rotateLock; // 写日志和读日志持读锁，切换、删除段时持写锁
+    private final TreeMap<Long, LoggerImpl> segments; // 检查点所在段及之后的所有段
+    private volatile LoggerImpl active; // 当前写入的段
+    private volatile long activeNo;
+
+    private long ckpt; // 最近一次检查点的位置
+    private long readNo; // 当前读取的段号
+
+    private SegmentedLogger(String path, LoggerConfig config) {
+        this.path = path;
+        this.config = config;
+        this.segmentSize = config.segmentSize;
+        this.rotateLock = new ReentrantReadWriteLock();
+        this.segments = new TreeMap<>();
+    }
+
+    static boolean exists(String path) {
+        return new File(path + CKPT_SUFFIX).exists();
+    }
+
+    static SegmentedLogger create(String path, LoggerConfig config) {
+        if(exists(path) || !listSegments(path).isEmpty()) {
+            Panic.panic(Error.FileExistsException);
+        }
+        SegmentedLogger lg = new SegmentedLogger(path, config);
+        lg.addSegment(1, LoggerImpl.create(segmentPath(path, 1), config));
+        lg.ckpt = position(1, 0);
+        lg.writeCheckpoint(lg.ckpt);
+        lg.rewind();
+        return lg;
+    }
+
+    static SegmentedLogger open(String path, LoggerConfig config) {
+        SegmentedLogger lg = new SegmentedLogger(path, config);
+        lg.ckpt = readCheckpoint(path);
+        long ckptNo = segmentOf(lg.ckpt);
+        for(long no : listSegments(path)) {
+            if(no < ckptNo) {
+                // 写入检查点后崩溃，尚未删除的旧段
+                deleteSegment(path, no);
+                continue;
+            }
+            lg.addSegment(no, LoggerImpl.open(segmentPath(path, no), config));
+        }
+        // 检查点所在段必须存在，之后的段号必须连续
+        long expect = ckptNo;
+        for(long no : lg.segments.keySet()) {
+            if(no != expect ++) {
+                Panic.panic(Error.BadLogFileException);
+            }
+        }
+        if(lg.segments.isEmpty()) {
+            Panic.panic(Error.BadLogFileException);
+        }
+        lg.rewind();
+        return lg;
+    }
+
+    private void addSegment(long no, LoggerImpl seg) {
+        segments.put(no, seg);
+        active = seg;
+        activeNo = no;
+    }
+
+    @Override
+    public long log(byte[] data) {
+        Lock r = rotateLock.readLock();
+        while(true) {
+            r.lock();
+            try {
+                if(active.size() < segmentSize) {
+                    return position(activeNo, active.log(data));
+                }
+            } finally {
+                r.unlock();
+            }
+            rotate();
+        }
+    }
+
+    // 当前段已写满，切换到新段。旧段落盘后只留作读取
+    private void rotate() {
+        rotateLock.writeLock().lock();
+        try {
+            if(active.size() < segmentSize) {
+                return;
+            }
+            active.flush(active.size());
+            long no = activeNo + 1;
+            addSegment(no, LoggerImpl.create(segmentPath(path, no), config));
+            syncDir(path);
+        } finally {
+            rotateLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void flush(long lsn) {
+        rotateLock.readLock().lock();
+        try {
+            // 之前的段在切换时已落盘
+            if(segmentOf(lsn) == activeNo) {
+                active.flush(offsetOf(lsn));
+            }
+        } finally {
+            rotateLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 当前日志末尾的位置，之后写入的日志都在该位置之后
+     */
+    public long mark() {
+        rotateLock.readLock().lock();
+        try {
+            return position(activeNo, active.size());
+        } finally {
+            rotateLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 记录检查点，之后恢复时从pos开始重放，并删除pos所在段之前的段
+     * 调用者需保证pos之前的日志所修改的页都已写回
+     */
+    public void checkpoint(long pos) {
+        rotateLock.writeLock().lock();
+        try {
+            if(pos <= ckpt) {
+                return;
+            }
+            long no = segmentOf(pos);
+            if(no > activeNo) {
+                Panic.panic(Error.BadLogFileException);
+            }
+            writeCheckpoint(pos);
+            ckpt = pos;
+            while(segments.firstKey() < no) {
+                Map.Entry<Long, LoggerImpl> e = segments.pollFirstEntry();
+                e.getValue().close();
+                deleteSegment(path, e.getKey());
+            }
+            if(readNo < no) {
+                readNo = no;
+                segments.get(no).seek(offsetOf(pos));
+            }
+        } finally {
+            rotateLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 截断到位置x，x所在段之后的段被删除，x须在最近的检查点之后
+     */
+    @Override
+    public void truncate(long x) throws Exception {
+        rotateLock.writeLock().lock();
+        try {
+            long no = segmentOf(x);
+            LoggerImpl seg = segments.get(no);
+            if(seg == null) {
+                throw Error.BadLogFileException;
+            }
+            seg.truncate(offsetOf(x));
+            while(segments.lastKey() > no) {
+                Map.Entry<Long, LoggerImpl> e = segments.pollLastEntry();
+                e.getValue().close();
+                deleteSegment(path, e.getKey());
+            }
+            active = seg;
+            activeNo = no;
+            if(readNo > no) {
+                readNo = no;
+            }
+        } finally {
+            rotateLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public byte[] next() {
+        rotateLock.readLock().lock();
+        try {
+            while(true) {
+                LoggerImpl seg = segments.get(readNo);
+                if(seg == null) {
+                    return null;
+                }
+                byte[] log = seg.next();
+                if(log != null) {
+                    return log;
+                }
+                LoggerImpl following = segments.get(readNo + 1);
+                if(following == null) {
+                    return null;
+                }
+                following.rewind();
+                readNo ++;
+            }
+        } finally {
+            rotateLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 读指针回到最近一次检查点
+     */
+    @Override
+    public void rewind() {
+        rotateLock.writeLock().lock();
+        try {
+            readNo = segmentOf(ckpt);
+            segments.get(readNo).seek(offsetOf(ckpt));
+        } finally {
+            rotateLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        rotateLock.writeLock().lock();
+        try {
+            for(LoggerImpl seg : segments.values()) {
+                seg.close();
+            }
+        } finally {
+            rotateLock.writeLock().unlock();
+        }
+    }
+
+    static long position(long segmentNo, long offset) {
+        return (segmentNo << OFFSET_BITS) | offset;
+    }
+
+    static long segmentOf(long pos) {
+        return pos >>> OFFSET_BITS;
+    }
+
+    static long offsetOf(long pos) {
+        return pos & OFFSET_MASK;
+    }
+
+    private static String segmentPath(String path, long no) {
+        return path + "." + String.format("%08d", no);
+    }
+
+    private static void deleteSegment(String path, long no) {
+        File f = new File(segmentPath(path, no) + LoggerImpl.LOG_SUFFIX);
+        if(!f.delete() && f.exists()) {
+            Panic.panic(Error.FileCannotRWException);
+        }
+    }
+
+    // 列出目录中属于该日志的所有段号，升序
+    private static List<Long> listSegments(String path) {
+        File base = new File(path).getAbsoluteFile();
+        String prefix = base.getName() + ".";
+        List<Long> nos = new ArrayList<>();
+        String[] names = base.getParentFile().list();
+        if(names == null) {
+            return nos;
+        }
+        for(String name : names) {
+            if(!name.startsWith(prefix) || !name.endsWith(LoggerImpl.LOG_SUFFIX)) continue;
+            String no = name.substring(prefix.length(), name.length() - LoggerImpl.LOG_SUFFIX.length());
+            if(no.isEmpty() || !no.chars().allMatch(Character::isDigit)) continue;
+            nos.add(Long.parseLong(no));
+        }
+        Collections.sort(nos);
+        return nos;
+    }
+
+    private static int checksum(long pos) {
+        byte[] raw = new byte[8];
+        Codec.putLong(raw, 0, pos);
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, raw.length);
+        return (int) crc.getValue();
+    }
+
+    private void writeCheckpoint(long pos) {
+        ByteBuffer buf = ByteBuffer.allocate(LEN_CKPT);
+        Codec.putLong(buf, 0, pos);
+        Codec.putInt(buf, 8, checksum(pos));
+        File tmp = new File(path + CKPT_SUFFIX + TMP_SUFFIX);
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(0);
+            FileChannel fc = raf.getChannel();
+            while(buf.hasRemaining()) {
+                fc.write(buf, buf.position());
+            }
+            fc.force(false);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        try {
+            Files.move(tmp.toPath(), new File(path + CKPT_SUFFIX).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        syncDir(path);
+    }
+
+    // fsync日志所在的目录，使新建、重命名的文件在崩溃后仍然存在。Windows不能打开目录，跳过
+    private static void syncDir(String path) {
+        if(WINDOWS) {
+            return;
+        }
+        File dir = new File(path).getAbsoluteFile().getParentFile();
+        try (FileChannel fc = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            fc.force(true);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    private static long readCheckpoint(String path) {
+        File f = new File(path + CKPT_SUFFIX);
+        if(!f.exists()) {
+            Panic.panic(Error.FileNotExistsException);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(LEN_CKPT);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            FileChannel fc = raf.getChannel();
+            while(buf.hasRemaining()) {
+                if(fc.read(buf, buf.position()) < 0) break;
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        long pos = Codec.getLong(buf, 0);
+        if(buf.hasRemaining() || Codec.getInt(buf, 8) != checksum(pos)) {
+            Panic.panic(Error.BadLogFileException);
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,89 @@
+package com.demo.db.bachend.dm.page;
+
+import com.demo.db.bachend.dm.pageCache.PageCache;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 以堆外页框为存储的页
+ * 页框由页面缓存预先分配并在页被驱逐后回收
+ */
+public class FramePage implements Page {
+    private long pageNumber;
+    private ByteBuffer frame;
+    private volatile boolean dirty;
+    private final AtomicLong pageLsn = new AtomicLong();
+    private final StampedLock latch = new StampedLock();
+    private PageCache pc;
+    public FramePage(long pageNumber, ByteBuffer frame, PageCache pc) {
+        this.pageNumber = pageNumber;
+        this.frame = frame;
+        this.pc = pc;
+    }
+    @Override
+    public void lock() {
+        latch.asWriteLock().lock();
+    }
+
+    @Override
+    public void unLock() {
+        latch.asWriteLock().unlock();
+    }
+
+    @Override
+    public void lockShared() {
+        latch.asReadLock().lock();
+    }
+
+    @Override
+    public void unLockShared() {
+        latch.asReadLock().unlock();
+    }
+
+    @Override
+    public long tryOptimisticRead() {
+        return latch.tryOptimisticRead();
+    }
+
+    @Override
+    public boolean validate(long stamp) {
+        return latch.validate(stamp);
+    }
+
+    @Override
+    public void release() {
+        pc.release(this);
+    }
+
+    @Override
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
+    @Override
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    @Override
+    public long getPageNumber() {
+        return pageNumber;
+    }
+
+    @Override
+    public void setPageLsn(long lsn) {
+        pageLsn.accumulateAndGet(lsn, Math::max);
+    }
+
+    @Override
+    public long getPageLsn() {
+        return pageLsn.get();
+    }
+
+    @Override
+    public ByteBuffer getPageBuffer() {
+        return frame;
+    }
+}
@@ -1,11 +1,40 @@
 package com.demo.db.bachend.dm.page;
 
+import java.nio.ByteBuffer;
+
+/**
+ * 页的latch有两种模式：
+ * lock()/unLock() 独占，修改页内容时必须持有，并在持有期间setDirty(true)；
+ *   PageX、PageOne、PageSlotted的修改方法自己加独占latch。检查点只持共享latch复制脏页，
+ *   不持独占latch的修改可能不在副本中而页已被标记为干净，这样的修改会丢失
+ * lockShared()/unLockShared() 共享，多个读者可同时持有
+ * 另有乐观读：先用tryOptimisticRead()取得版本戳，不加锁直接读，
+ * 读完用validate()检查期间是否有写者持有过独占latch，失败时改为加共享latch重读。
+ * 乐观读期间读到的数据可能不一致，只能读入局部变量，validate成功之后才能使用。
+ * 用法见PageSlotted.read。
+ * latch不可重入。
+ */
 public interface Page {
     void lock();
     void unLock();
+    void lockShared();
+    void unLockShared();
+    long tryOptimisticRead(); //返回0表示当前有写者，乐观读一定失败
+    boolean validate(long stamp);
     void release();
     void setDirty(boolean dirty);
     boolean isDirty();
-    int getPageNumber();
-    byte[] getPageData();
+    long getPageNumber();
+    /**
+     * 页内容的ByteBuffer视图，position为0，limit为页大小
+     * 视图在多个调用者之间共享，只能使用绝对下标读写，需要相对读写时先duplicate()
+     */
+    ByteBuffer getPageBuffer();
+    /**
+     * 页LSN：最近一次修改该页的日志位置，只会增大
+     * 修改页之前先写日志，再用log()返回的位置调用setPageLsn；
+     * 页面缓存写回该页前会保证日志已落盘到该位置
+     */
+    void setPageLsn(long lsn);
+    long getPageLsn();
 }
@@ -2,29 +2,50 @@ package com.demo.db.bachend.dm.page;
 
 import com.demo.db.bachend.dm.pageCache.PageCache;
 
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
 
 public class PageImpl implements Page {
-    private int pageNumber;
-    private byte[] data;
-    private boolean dirty;
-    private Lock lock;
+    private long pageNumber;
+    private ByteBuffer buffer;
+    private volatile boolean dirty;
+    private final AtomicLong pageLsn = new AtomicLong();
+    private final StampedLock latch = new StampedLock();
     private PageCache pc;
-    public PageImpl(int pageNumber, byte[] data, PageCache pc) {
+    public PageImpl(long pageNumber, byte[] data, PageCache pc) {
         this.pageNumber = pageNumber;
-        this.data = data;
+        this.buffer = ByteBuffer.wrap(data);
         this.pc = pc;
-        lock = new ReentrantLock();
     }
     @Override
     public void lock() {
-        lock.lock();
+        latch.asWriteLock().lock();
     }
 
     @Override
     public void unLock() {
-        lock.unlock();
+        latch.asWriteLock().unlock();
+    }
+
+    @Override
+    public void lockShared() {
+        latch.asReadLock().lock();
+    }
+
+    @Override
+    public void unLockShared() {
+        latch.asReadLock().unlock();
+    }
+
+    @Override
+    public long tryOptimisticRead() {
+        return latch.tryOptimisticRead();
+    }
+
+    @Override
+    public boolean validate(long stamp) {
+        return latch.validate(stamp);
     }
 
     @Override
@@ -43,12 +64,22 @@ public class PageImpl implements Page {
     }
 
     @Override
-    public int getPageNumber() {
+    public long getPageNumber() {
         return pageNumber;
     }
 
     @Override
-    public byte[] getPageData() {
-        return data;
+    public void setPageLsn(long lsn) {
+        pageLsn.accumulateAndGet(lsn, Math::max);
+    }
+
+    @Override
+    public long getPageLsn() {
+        return pageLsn.get();
+    }
+
+    @Override
+    public ByteBuffer getPageBuffer() {
+        return buffer;
     }
 }
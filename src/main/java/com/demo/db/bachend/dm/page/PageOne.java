@@ -1,44 +1,54 @@
 package com.demo.db.bachend.dm.page;
 
 import com.demo.db.bachend.dm.pageCache.PageCache;
+import com.demo.db.bachend.utils.Codec;
 import com.demo.db.bachend.utils.RandomUtil;
 
-import java.util.Arrays;
-import java.util.Random;
+import java.nio.ByteBuffer;
 
 /**
  * 特殊管理第一页
  * ValidCheck
  * db启动时给100~107字节处填入一个随机字节，db关闭时将其拷贝到108~115字节
  * 用于判断上一次数据库是否正常关闭
+ * 修改页的方法自己持有页的独占latch
  */
 public class PageOne {
     private static final int OF_VC = 100;
     private static final int LEN_VC = 8;
     public static byte[] InitRaw() {
         byte[] raw = new byte[PageCache.PAGE_SIZE];
-        setVcOpen(raw);
+        setVcOpen(ByteBuffer.wrap(raw));
         return raw;
     }
     public static void setVcOpen(Page pg) {
-        pg.setDirty(true);
-        setVcOpen(pg.getPageData());
+        pg.lock();
+        try {
+            pg.setDirty(true);
+            setVcOpen(pg.getPageBuffer());
+        } finally {
+            pg.unLock();
+        }
     }
-    private static void setVcOpen(byte[] raw) {
-        System.arraycopy(RandomUtil.randomBytes(LEN_VC), 0, raw, OF_VC, LEN_VC);
+    private static void setVcOpen(ByteBuffer buf) {
+        Codec.putBytes(buf, OF_VC, RandomUtil.randomBytes(LEN_VC));
     }
     public static void setVcClose(Page pg) {
-        pg.setDirty(true);
-        setVcClose(pg.getPageData());
+        pg.lock();
+        try {
+            pg.setDirty(true);
+            setVcClose(pg.getPageBuffer());
+        } finally {
+            pg.unLock();
+        }
     }
-    private static void setVcClose(byte[] raw) {
-        System.arraycopy(raw, OF_VC, raw, OF_VC + LEN_VC, LEN_VC);
+    private static void setVcClose(ByteBuffer buf) {
+        Codec.putLong(buf, OF_VC + LEN_VC, Codec.getLong(buf, OF_VC));
     }
     public static boolean checkVc(Page pg) {
-        return checkVc(pg.getPageData());
+        return checkVc(pg.getPageBuffer());
     }
-    private static boolean checkVc(byte[] raw) {
-        return Arrays.equals(Arrays.copyOfRange(raw, OF_VC, OF_VC + LEN_VC),
-                Arrays.copyOfRange(raw, OF_VC+LEN_VC, OF_VC + 2 * LEN_VC));
+    private static boolean checkVc(ByteBuffer buf) {
+        return Codec.getLong(buf, OF_VC) == Codec.getLong(buf, OF_VC + LEN_VC);
     }
 }
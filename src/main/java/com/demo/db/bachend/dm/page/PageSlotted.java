@@ -0,0 +1,381 @@
+package com.demo.db.bachend.dm.page;
+
+import com.demo.db.bachend.dm.pageCache.PageCache;
+import com.demo.db.bachend.err.Error;
+import com.demo.db.bachend.utils.Codec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * PageSlotted管理带槽目录的页，与只能追加的PageX并存
+ * 页结构
+ * [SlotCount] [FreeStart] [FreeEnd] [Fragmented] [Slot0] [Slot1] ... [空闲空间] ... [记录]
+ * SlotCount: 2字节 槽的个数
+ * FreeStart: 2字节 槽目录的结束位置，即空闲空间的开始
+ * FreeEnd: 2字节 记录区的开始位置，记录从页尾向前分配
+ * Fragmented: 2字节 记录区中已删除或被搬走的记录占用的字节数，整理后可重新使用
+ * Slot: [Offset] [Length] 各2字节，Offset为0表示空槽
+ *
+ * 记录用槽号标识，槽号在记录的整个生命周期内不变，
+ * 记录被更新变长或页被整理时只修改槽中的偏移量。
+ *
+ * 修改页的方法自己持有页的独占latch，调用者不能已持有latch；
+ * read()用乐观读，与写者并发时自动改为加共享latch重读；
+ * 其余只读的方法不加latch，需要一致的结果时由调用者持有共享latch。
+ *
+ * 槽号越界时抛出InvalidSlotException，恢复时记录放不下抛出DataTooLargeException，
+ * 都在修改页之前检查，越界的槽号会把空闲区当作槽目录读写，悄悄破坏整页。
+ */
+public class PageSlotted {
+    private static final short OF_SLOT_COUNT = 0;
+    private static final short OF_FREE_START = OF_SLOT_COUNT + 2;
+    private static final short OF_FREE_END = OF_FREE_START + 2;
+    private static final short OF_FRAGMENTED = OF_FREE_END + 2;
+    private static final short OF_SLOTS = OF_FRAGMENTED + 2;
+    private static final int SLOT_SIZE = 4;
+    public static final int MAX_FREE_SPACE = PageCache.PAGE_SIZE - OF_SLOTS - SLOT_SIZE;
+
+    public static byte[] initRaw() {
+        byte[] raw = new byte[PageCache.PAGE_SIZE];
+        Codec.putShort(raw, OF_SLOT_COUNT, (short) 0);
+        Codec.putShort(raw, OF_FREE_START, OF_SLOTS);
+        Codec.putShort(raw, OF_FREE_END, (short) PageCache.PAGE_SIZE);
+        Codec.putShort(raw, OF_FRAGMENTED, (short) 0);
+        return raw;
+    }
+
+    private static int getSlotCount(ByteBuffer buf) {
+        return Codec.getShort(buf, OF_SLOT_COUNT);
+    }
+    private static int getFreeStart(ByteBuffer buf) {
+        return Codec.getShort(buf, OF_FREE_START);
+    }
+    private static int getFreeEnd(ByteBuffer buf) {
+        return Codec.getShort(buf, OF_FREE_END);
+    }
+    private static int getFragmented(ByteBuffer buf) {
+        return Codec.getShort(buf, OF_FRAGMENTED);
+    }
+    private static void setSlotCount(ByteBuffer buf, int count) {
+        Codec.putShort(buf, OF_SLOT_COUNT, (short) count);
+        Codec.putShort(buf, OF_FREE_START, (short) (OF_SLOTS + count * SLOT_SIZE));
+    }
+    private static void setFreeEnd(ByteBuffer buf, int freeEnd) {
+        Codec.putShort(buf, OF_FREE_END, (short) freeEnd);
+    }
+    private static void setFragmented(ByteBuffer buf, int fragmented) {
+        Codec.putShort(buf, OF_FRAGMENTED, (short) fragmented);
+    }
+    private static int slotPos(int slot) {
+        return OF_SLOTS + slot * SLOT_SIZE;
+    }
+    private static int getOffset(ByteBuffer buf, int slot) {
+        return Codec.getShort(buf, slotPos(slot));
+    }
+    private static int getLength(ByteBuffer buf, int slot) {
+        return Codec.getShort(buf, slotPos(slot) + 2);
+    }
+    private static void setSlot(ByteBuffer buf, int slot, int offset, int length) {
+        Codec.putShort(buf, slotPos(slot), (short) offset);
+        Codec.putShort(buf, slotPos(slot) + 2, (short) length);
+    }
+
+    public static int getSlotCount(Page pg) {
+        return getSlotCount(pg.getPageBuffer());
+    }
+
+    // 获取页面可用的空闲空间大小，包括整理后可回收的部分
+    public static int getFreeSpace(Page pg) {
+        return getFreeSpace(pg.getPageBuffer());
+    }
+    private static int getFreeSpace(ByteBuffer buf) {
+        return getFreeEnd(buf) - getFreeStart(buf) + getFragmented(buf);
+    }
+
+    private static void checkSlot(ByteBuffer buf, int slot) {
+        if(slot < 0 || slot >= getSlotCount(buf)) {
+            throw (RuntimeException) Error.InvalidSlotException;
+        }
+    }
+
+    // 页中能否插入一条长度为length的记录
+    public static boolean canInsert(Page pg, int length) {
+        ByteBuffer buf = pg.getPageBuffer();
+        int need = length + (findEmptySlot(buf) < 0 ? SLOT_SIZE : 0);
+        return getFreeSpace(pg) >= need;
+    }
+
+    private static int findEmptySlot(ByteBuffer buf) {
+        int count = getSlotCount(buf);
+        for(int i = 0; i < count; i ++) {
+            if(getOffset(buf, i) == 0) return i;
+        }
+        return -1;
+    }
+
+    //将raw插入pg中，返回其槽号，空间不足时返回-1
+    public static short insert(Page pg, byte[] raw) {
+        pg.lock();
+        try {
+            ByteBuffer buf = pg.getPageBuffer();
+            int slot = findEmptySlot(buf);
+            int count = getSlotCount(buf);
+            int slotNeed = slot < 0 ? SLOT_SIZE : 0;
+            if(getFreeSpace(pg) < raw.length + slotNeed) {
+                return -1;
+            }
+            pg.setDirty(true);
+            if(slot < 0) {
+                slot = count;
+                ensureContiguous(buf, SLOT_SIZE);
+                setSlotCount(buf, count + 1);
+                setSlot(buf, slot, 0, 0);
+            }
+            int offset = allocate(buf, raw.length);
+            Codec.putBytes(buf, offset, raw);
+            setSlot(buf, slot, offset, raw.length);
+            return (short) slot;
+        } finally {
+            pg.unLock();
+        }
+    }
+
+    /**
+     * 读取槽中的记录，空槽返回null
+     * 先不加latch读取，期间没有写者时直接返回；否则加共享latch重读。
+     * 调用者不能持有该页的独占latch
+     */
+    public static byte[] read(Page pg, short slot) {
+        ByteBuffer buf = pg.getPageBuffer();
+        long stamp = pg.tryOptimisticRead();
+        if(stamp != 0) {
+            byte[] raw = readSlot(buf, slot);
+            if(pg.validate(stamp)) {
+                return raw;
+            }
+        }
+        pg.lockShared();
+        try {
+            return readSlot(buf, slot);
+        } finally {
+            pg.unLockShared();
+        }
+    }
+
+    // 不加latch读取时页可能正被修改，偏移量和长度先检查范围再使用，不一致的结果由validate丢弃
+    private static byte[] readSlot(ByteBuffer buf, int slot) {
+        if(slot < 0 || slot >= getSlotCount(buf) || slotPos(slot + 1) > PageCache.PAGE_SIZE) {
+            return null;
+        }
+        int offset = getOffset(buf, slot);
+        int length = getLength(buf, slot);
+        if(offset < OF_SLOTS || length < 0 || offset + length > PageCache.PAGE_SIZE) {
+            return null;
+        }
+        byte[] raw = new byte[length];
+        Codec.getBytes(buf, offset, raw, 0, length);
+        return raw;
+    }
+
+    /**
+     * 更新槽中的记录，槽号不变
+     * 新记录不长于旧记录时原地覆盖，否则在页内重新分配，空间不足时返回false
+     */
+    public static boolean update(Page pg, short slot, byte[] raw) {
+        pg.lock();
+        try {
+            ByteBuffer buf = pg.getPageBuffer();
+            checkSlot(buf, slot);
+            int offset = getOffset(buf, slot);
+            int length = getLength(buf, slot);
+            if(raw.length > length && getFreeSpace(buf) + length < raw.length) {
+                return false;
+            }
+            pg.setDirty(true);
+            writeSlot(buf, slot, offset, length, raw);
+            return true;
+        } finally {
+            pg.unLock();
+        }
+    }
+
+    // 删除槽中的记录，末尾的空槽被回收
+    public static void delete(Page pg, short slot) {
+        pg.lock();
+        try {
+            ByteBuffer buf = pg.getPageBuffer();
+            checkSlot(buf, slot);
+            delete(pg, buf, slot);
+        } finally {
+            pg.unLock();
+        }
+    }
+
+    private static void delete(Page pg, ByteBuffer buf, short slot) {
+        if(getOffset(buf, slot) == 0) {
+            return;
+        }
+        pg.setDirty(true);
+        setFragmented(buf, getFragmented(buf) + getLength(buf, slot));
+        setSlot(buf, slot, 0, 0);
+        int count = getSlotCount(buf);
+        while(count > 0 && getOffset(buf, count - 1) == 0) {
+            count --;
+        }
+        setSlotCount(buf, count);
+    }
+
+    /**
+     * 页内整理：把所有记录紧凑地移到页尾，回收碎片
+     * 记录按偏移量从大到小依次向页尾移动，目标位置不小于原位置，不会覆盖尚未移动的记录
+     */
+    public static void compact(Page pg) {
+        pg.lock();
+        try {
+            pg.setDirty(true);
+            compact(pg.getPageBuffer());
+        } finally {
+            pg.unLock();
+        }
+    }
+
+    private static void compact(ByteBuffer buf) {
+        int count = getSlotCount(buf);
+        // 高32位为偏移量，低32位为槽号，排序后按偏移量从大到小处理
+        long[] order = new long[count];
+        int live = 0;
+        for(int i = 0; i < count; i ++) {
+            int offset = getOffset(buf, i);
+            if(offset != 0) {
+                order[live ++] = ((long) offset << 32) | i;
+            }
+        }
+        Arrays.sort(order, 0, live);
+        int end = PageCache.PAGE_SIZE;
+        byte[] tmp = new byte[0];
+        for(int k = live - 1; k >= 0; k --) {
+            int slot = (int) order[k];
+            int offset = (int) (order[k] >>> 32);
+            int length = getLength(buf, slot);
+            end -= length;
+            if(end != offset) {
+                if(tmp.length < length) tmp = new byte[length];
+                Codec.getBytes(buf, offset, tmp, 0, length);
+                Codec.putBytes(buf, end, tmp, 0, length);
+                setSlot(buf, slot, end, length);
+            }
+        }
+        setFreeEnd(buf, end);
+        setFragmented(buf, 0);
+    }
+
+    // 保证空闲区连续至少size字节，不够时先整理
+    private static void ensureContiguous(ByteBuffer buf, int size) {
+        if(getFreeEnd(buf) - getFreeStart(buf) < size) {
+            compact(buf);
+        }
+    }
+
+    // 从空闲区尾部分配length字节，调用前已确认空间足够
+    private static int allocate(ByteBuffer buf, int length) {
+        ensureContiguous(buf, length);
+        if(getFreeEnd(buf) - getFreeStart(buf) < length) {
+            throw (RuntimeException) Error.DataTooLargeException;
+        }
+        int offset = getFreeEnd(buf) - length;
+        setFreeEnd(buf, offset);
+        return offset;
+    }
+
+    // 把raw写入槽中，放得下时原地覆盖，否则释放旧空间后重新分配
+    private static void writeSlot(ByteBuffer buf, int slot, int offset, int length, byte[] raw) {
+        if(offset != 0 && raw.length <= length) {
+            Codec.putBytes(buf, offset, raw);
+            setSlot(buf, slot, offset, raw.length);
+            setFragmented(buf, getFragmented(buf) + length - raw.length);
+            return;
+        }
+        if(offset != 0) {
+            // 先清空槽，整理时不再保留旧记录
+            setSlot(buf, slot, 0, 0);
+            setFragmented(buf, getFragmented(buf) + length);
+        }
+        int newOffset = allocate(buf, raw.length);
+        Codec.putBytes(buf, newOffset, raw);
+        setSlot(buf, slot, newOffset, raw.length);
+    }
+
+    // 恢复时保证槽目录至少有slot+1个槽
+    private static void ensureSlot(ByteBuffer buf, int slot) {
+        int count = getSlotCount(buf);
+        if(slot < count) {
+            return;
+        }
+        int need = (slot + 1 - count) * SLOT_SIZE;
+        ensureContiguous(buf, need);
+        if(getFreeEnd(buf) - getFreeStart(buf) < need) {
+            throw (RuntimeException) Error.DataTooLargeException;
+        }
+        setSlotCount(buf, slot + 1);
+        for(int i = count; i <= slot; i ++) {
+            setSlot(buf, i, 0, 0);
+        }
+    }
+
+    /**
+     * 用于在数据库崩溃后重新打开时，恢复例程把数据插入到指定槽
+     * 同一条日志重做多次结果相同：第二次时槽中已有等长的记录，原地覆盖
+     */
+    public static void recoverInsert(Page pg, byte[] raw, short slot) {
+        pg.lock();
+        try {
+            ByteBuffer buf = pg.getPageBuffer();
+            checkRecoverSpace(buf, slot, raw.length);
+            pg.setDirty(true);
+            ensureSlot(buf, slot);
+            writeSlot(buf, slot, getOffset(buf, slot), getLength(buf, slot), raw);
+        } finally {
+            pg.unLock();
+        }
+    }
+    // 恢复前检查槽号和空间，放不下时不修改页
+    private static void checkRecoverSpace(ByteBuffer buf, int slot, int length) {
+        if(slot < 0) {
+            throw (RuntimeException) Error.InvalidSlotException;
+        }
+        int count = getSlotCount(buf);
+        int need = slot < count ? 0 : (slot + 1 - count) * SLOT_SIZE;
+        int oldOffset = slot < count ? getOffset(buf, slot) : 0;
+        int oldLength = slot < count ? getLength(buf, slot) : 0;
+        if(oldOffset != 0 && length <= oldLength) {
+            return;
+        }
+        // 旧记录被搬走时，它占用的空间整理后可以重新使用
+        int free = getFreeSpace(buf) + (oldOffset != 0 ? oldLength : 0);
+        if(free < need + length) {
+            throw (RuntimeException) Error.DataTooLargeException;
+        }
+    }
+    //用于在数据库崩溃后重新打开时，恢复例程更新数据
+    public static void recoverUpdate(Page pg, byte[] raw, short slot) {
+        recoverInsert(pg, raw, slot);
+    }
+    //用于在数据库崩溃后重新打开时，恢复例程删除数据
+    public static void recoverDelete(Page pg, short slot) {
+        pg.lock();
+        try {
+            ByteBuffer buf = pg.getPageBuffer();
+            if(slot < 0) {
+                throw (RuntimeException) Error.InvalidSlotException;
+            }
+            // 末尾的空槽在删除时已被回收，重做删除时槽可能已不存在
+            if(slot >= getSlotCount(buf)) {
+                return;
+            }
+            delete(pg, buf, slot);
+        } finally {
+            pg.unLock();
+        }
+    }
+}
@@ -1,15 +1,19 @@
 package com.demo.db.bachend.dm.page;
 
 import com.demo.db.bachend.dm.pageCache.PageCache;
-import com.demo.db.bachend.utils.Parser;
+import com.demo.db.bachend.dm.pageIndex.PageIndex;
+import com.demo.db.bachend.utils.Codec;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * PageX管理普通页
  * 普通页结构
  * [FreeSpaceOffset] [Data]
  * FreeSpaceOffset: 2字节 空闲位置偏移量
+ *
+ * 修改页的方法自己持有页的独占latch，调用者不能已持有latch
+ * 插入只能通过insert(pg, raw, index)，插入后页总是按新的空闲空间放回索引
  */
 public class PageX {
     private static final short OF_START = 0;
@@ -22,39 +26,69 @@ public class PageX {
         return raw;
     }
     private static void setFSO(byte[] raw, short ofData) {
-        System.arraycopy(Parser.short2Byte(ofData), 0, raw, OF_START, OF_DATA);
+        Codec.putShort(raw, OF_START, ofData);
+    }
+    private static void setFSO(ByteBuffer buf, short ofData) {
+        Codec.putShort(buf, OF_START, ofData);
     }
     public static short getFSO(Page pg) {
-        return getFSO(pg.getPageData());
+        return getFSO(pg.getPageBuffer());
     }
-    private static short getFSO(byte[] raw) {
-        return Parser.parseShort(Arrays.copyOfRange(raw, 0, 2));
+    private static short getFSO(ByteBuffer buf) {
+        return Codec.getShort(buf, OF_START);
     }
     // 获取页面的空闲空间大小
     public static int getFreeSpace(Page pg) {
-        return PageCache.PAGE_SIZE - (int)getFSO(pg.getPageData());
+        return getFreeSpace(pg.getPageBuffer());
+    }
+    // 从页的原始内容中获取空闲空间大小，用于不经过缓存扫描页
+    public static int getFreeSpace(ByteBuffer buf) {
+        return PageCache.PAGE_SIZE - (int)getFSO(buf);
     }
     //将raw插入pg中，返回插入位置
-    public static short insert(Page pg, byte[] raw) {
-        pg.setDirty(true);
-        short offset = getFSO(pg.getPageData());
-        System.arraycopy(raw, 0, pg.getPageData(), offset, raw.length);
-        setFSO(pg.getPageData(), (short)( offset + raw.length));
+    private static short insert(Page pg, byte[] raw) {
+        pg.lock();
+        try {
+            pg.setDirty(true);
+            ByteBuffer buf = pg.getPageBuffer();
+            short offset = getFSO(buf);
+            Codec.putBytes(buf, offset, raw);
+            setFSO(buf, (short)( offset + raw.length));
+            return offset;
+        } finally {
+            pg.unLock();
+        }
+    }
+    //将raw插入pg中，并按插入后的空闲空间把页放回空闲空间索引
+    public static short insert(Page pg, byte[] raw, PageIndex index) {
+        short offset = insert(pg, raw);
+        index.add(pg.getPageNumber(), getFreeSpace(pg));
         return offset;
     }
     //用于在数据库崩溃后重新打开时，恢复例程直接插入数据
     public static void recoverInsert(Page pg, byte[] raw, short offset) {
-        pg.setDirty(true);
-        System.arraycopy(raw, 0, pg.getPageData(), offset, raw.length);
-        short rawFSO = getFSO(pg.getPageData());
-        //数据库崩溃后插入的位置大于原本的数据长度
-        if(rawFSO < offset + raw.length) {
-            setFSO(pg.getPageData(), (short)(offset+raw.length));
+        pg.lock();
+        try {
+            pg.setDirty(true);
+            ByteBuffer buf = pg.getPageBuffer();
+            Codec.putBytes(buf, offset, raw);
+            short rawFSO = getFSO(buf);
+            //数据库崩溃后插入的位置大于原本的数据长度
+            if(rawFSO < offset + raw.length) {
+                setFSO(buf, (short)(offset+raw.length));
+            }
+        } finally {
+            pg.unLock();
         }
     }
     //用于在数据库崩溃后重新打开时，恢复例程更新数据
     public static void recoverUpdate(Page pg, byte[] raw, short offset) {
-        pg.setDirty(true);
-        System.arraycopy(raw, 0, pg.getPageData(), offset, raw.length);
+        pg.lock();
+        try {
+            pg.setDirty(true);
+            Codec.putBytes(pg.getPageBuffer(), offset, raw);
+        } finally {
+            pg.unLock();
+        }
     }
 }
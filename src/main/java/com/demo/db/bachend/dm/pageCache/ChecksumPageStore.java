@@ -0,0 +1,260 @@
+package com.demo.db.bachend.dm.pageCache;
+
+import com.demo.db.bachend.err.Error;
+import com.demo.db.bachend.utils.Codec;
+import com.demo.db.bachend.utils.Panic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * 为每页记录校验和的页存储，包装其他PageStore
+ *
+ * 页的格式中没有空余位置，校验和单独存放在校验和文件(.crc)中，每页一项：
+ * [Checksum] 4字节 页内容的CRC32，为0表示该页没有记录校验和(从未经本存储写入)
+ *
+ * 写页时同时写入校验和，读页时校验，不一致时抛出BadPageChecksumException。
+ * sync()先让页落盘再让校验和落盘。崩溃时正在写的页可能只写了一部分(torn write)，
+ * 或页与校验和只有一个落盘，这样的页都会校验失败，需要由日志恢复；
+ * 其余校验通过的页在恢复时可以跳过，见PageScrubber。
+ * 恢复期间用setVerify(false)关闭读时校验，重做的页写回时重新记录校验和。
+ *
+ * 页和它的校验和分两次写入，同一页的读写由条带锁串行化：
+ * 写持有写锁直到校验和也写完，读持有读锁直到校验完成，不会读到新页配旧校验和。
+ * 写入时在写锁内复制页，对复制的内容计算校验和并把它写下去。
+ */
+class ChecksumPageStore implements PageStore {
+    static final String CRC_SUFFIX = ".crc";
+    private static final int ENTRY_SIZE = 4;
+    private static final int NONE = 0;
+    private static final int STRIPES = 64;
+
+    private static final ThreadLocal<CRC32> CRC = ThreadLocal.withInitial(CRC32::new);
+
+    private final PageStore store;
+    private final RandomAccessFile file;
+    private final FileChannel fc;
+    private final ReentrantReadWriteLock[] stripes;
+    private volatile boolean verify = true;
+
+    private ChecksumPageStore(PageStore store, RandomAccessFile file) {
+        this.store = store;
+        this.file = file;
+        this.fc = file.getChannel();
+        this.stripes = new ReentrantReadWriteLock[STRIPES];
+        for(int i = 0; i < STRIPES; i ++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    static ChecksumPageStore create(String path, PageStore store) {
+        File f = new File(path + CRC_SUFFIX);
+        try {
+            if(!f.createNewFile()) {
+                Panic.panic(Error.FileExistsException);
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return open(path, store);
+    }
+
+    static ChecksumPageStore open(String path, PageStore store) {
+        File f = new File(path + CRC_SUFFIX);
+        if(!f.canRead() || !f.canWrite()) {
+            Panic.panic(Error.FileCannotRWException);
+        }
+        try {
+            return new ChecksumPageStore(store, new RandomAccessFile(f, "rw"));
+        } catch (IOException e) {
+            Panic.panic(e);
+            return null;
+        }
+    }
+
+    static boolean exists(String path) {
+        return new File(path + CRC_SUFFIX).exists();
+    }
+
+    // 页内容的校验和，避开表示"无校验和"的0
+    private static int checksum(ByteBuffer page) {
+        CRC32 crc = CRC.get();
+        crc.reset();
+        crc.update(page.duplicate());
+        int sum = (int) crc.getValue();
+        return sum == NONE ? 1 : sum;
+    }
+
+    private static long entryPos(long pgNum) {
+        return (pgNum - 1) * ENTRY_SIZE;
+    }
+
+    // 锁住从pgNum开始的n页所在的条带，按条带号升序加锁，避免多页读写之间死锁
+    private Lock[] lock(long pgNum, int n, boolean exclusive) {
+        int count = Math.min(Math.max(n, 1), STRIPES);
+        int[] idx = new int[count];
+        for(int i = 0; i < count; i ++) {
+            idx[i] = (int) ((pgNum - 1 + i) % STRIPES);
+        }
+        Arrays.sort(idx);
+        Lock[] locks = new Lock[count];
+        for(int i = 0; i < count; i ++) {
+            locks[i] = exclusive ? stripes[idx[i]].writeLock() : stripes[idx[i]].readLock();
+            locks[i].lock();
+        }
+        return locks;
+    }
+
+    private static void unlock(Lock[] locks) {
+        for(int i = locks.length - 1; i >= 0; i --) {
+            locks[i].unlock();
+        }
+    }
+
+    private static int pages(ByteBuffer buf) {
+        return (buf.remaining() + PageCache.PAGE_SIZE - 1) / PageCache.PAGE_SIZE;
+    }
+
+    @Override
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    @Override
+    public long pageCount() {
+        return store.pageCount();
+    }
+
+    @Override
+    public void read(long pgNum, ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        Lock[] locks = lock(pgNum, pages(dst), false);
+        try {
+            store.read(pgNum, dst);
+            if(verify && !check(pgNum, dst, start).isEmpty()) {
+                throw (RuntimeException) Error.BadPageChecksumException;
+            }
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /**
+     * 读入从pgNum开始的n页并校验，返回校验失败的页号
+     */
+    List<Long> verify(long pgNum, int n) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(n * PageCache.PAGE_SIZE);
+        Lock[] locks = lock(pgNum, n, false);
+        try {
+            store.read(pgNum, buf);
+            return check(pgNum, buf, 0);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    // 校验buf中从start到position之间的页
+    private List<Long> check(long pgNum, ByteBuffer buf, int start) throws IOException {
+        int n = (buf.position() - start) / PageCache.PAGE_SIZE;
+        ByteBuffer sums = ByteBuffer.allocate(n * ENTRY_SIZE);
+        long pos = entryPos(pgNum);
+        while(sums.hasRemaining()) {
+            if(fc.read(sums, pos + sums.position()) < 0) break;
+        }
+        List<Long> bad = new ArrayList<>();
+        for(int i = 0; i < n; i ++) {
+            // 校验和文件之外的项视为没有校验和
+            int expect = (i + 1) * ENTRY_SIZE <= sums.position() ? Codec.getInt(sums, i * ENTRY_SIZE) : NONE;
+            if(expect == NONE) continue;
+            ByteBuffer page = buf.duplicate();
+            page.limit(start + (i + 1) * PageCache.PAGE_SIZE);
+            page.position(start + i * PageCache.PAGE_SIZE);
+            if(checksum(page) != expect) {
+                bad.add(pgNum + i);
+            }
+        }
+        return bad;
+    }
+
+    // 复制要写入的内容，校验和与写下去的是同一份数据，调用者之后修改src也不会造成不一致
+    private static ByteBuffer copy(ByteBuffer src) {
+        ByteBuffer copy = ByteBuffer.allocate(src.remaining());
+        copy.put(src.duplicate());
+        copy.flip();
+        return copy;
+    }
+
+    @Override
+    public void write(long pgNum, ByteBuffer src) throws IOException {
+        ByteBuffer sum = ByteBuffer.allocate(ENTRY_SIZE);
+        Lock[] locks = lock(pgNum, 1, true);
+        try {
+            ByteBuffer data = copy(src);
+            Codec.putInt(sum, 0, checksum(data));
+            store.write(pgNum, data);
+            writeSums(pgNum, sum);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    @Override
+    public void write(long pgNum, ByteBuffer[] srcs) throws IOException {
+        ByteBuffer sums = ByteBuffer.allocate(srcs.length * ENTRY_SIZE);
+        ByteBuffer[] data = new ByteBuffer[srcs.length];
+        Lock[] locks = lock(pgNum, srcs.length, true);
+        try {
+            for(int i = 0; i < srcs.length; i ++) {
+                data[i] = copy(srcs[i]);
+                Codec.putInt(sums, i * ENTRY_SIZE, checksum(data[i]));
+            }
+            store.write(pgNum, data);
+            writeSums(pgNum, sums);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    private void writeSums(long pgNum, ByteBuffer sums) throws IOException {
+        long pos = entryPos(pgNum);
+        while(sums.hasRemaining()) {
+            fc.write(sums, pos + sums.position());
+        }
+    }
+
+    @Override
+    public void preallocate(long pages) throws IOException {
+        // 预分配的页读出全0，校验和项为0，不做校验
+        store.preallocate(pages);
+    }
+
+    @Override
+    public void sync() throws IOException {
+        store.sync();
+        fc.force(false);
+    }
+
+    @Override
+    public void truncate(long maxPgNum) throws IOException {
+        store.truncate(maxPgNum);
+        if(file.length() > entryPos(maxPgNum + 1)) {
+            file.setLength(entryPos(maxPgNum + 1));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+        fc.close();
+        file.close();
+    }
+}
@@ -0,0 +1,370 @@
+package com.demo.db.bachend.dm.pageCache;
+
+import com.demo.db.bachend.err.Error;
+import com.demo.db.bachend.utils.Codec;
+import com.demo.db.bachend.utils.Lz;
+import com.demo.db.bachend.utils.Panic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 压缩存储的页文件
+ *
+ * 页在写回时用Lz压缩，按SECTOR对齐存放在数据文件(.db)的一个区段(extent)中，
+ * 页到区段的映射保存在映射文件(.pmap)中，每页一项：
+ * [Offset] [Length]
+ * Offset 8字节 区段在数据文件中的位置
+ * Length 4字节 压缩后的长度，为0表示该页从未写过(全0)，为PAGE_SIZE表示未压缩
+ *
+ * 每次写入都分配新的区段，不覆盖旧数据，新的映射只记在内存中。
+ * sync()先让数据落盘，再写入并fsync变化过的映射项，最后才重用被替换的区段。
+ * 这样映射文件中的每一项指向的数据都已落盘，且在映射项被替换并落盘之前不会被覆盖，
+ * 崩溃后每页都是上一次sync()时的内容。
+ * 打开时根据映射重建空闲区段表。区段中的数据无法解压时抛出CorruptedPageException，
+ * 与校验和不一致一样交给恢复处理。
+ * 映射常驻内存，以int为下标，因此页数不超过MAX_PAGES。
+ */
+class CompressedPageStore implements PageStore {
+    static final String MAP_SUFFIX = ".pmap";
+    private static final int SECTOR = 512;
+    private static final int ENTRY_SIZE = 12;
+    private static final int OF_OFFSET = 0;
+    private static final int OF_LENGTH = OF_OFFSET + 8;
+    static final long MAX_PAGES = Integer.MAX_VALUE - 8;
+
+    private static final ThreadLocal<byte[]> PAGE_BUF = ThreadLocal.withInitial(() -> new byte[PageCache.PAGE_SIZE]);
+    private static final ThreadLocal<byte[]> PACK_BUF = ThreadLocal.withInitial(() -> new byte[Lz.maxCompressedLength(PageCache.PAGE_SIZE)]);
+
+    private final RandomAccessFile dataFile;
+    private final FileChannel data;
+    private final RandomAccessFile mapFile;
+    private final FileChannel map;
+
+    private final Lock lock; // 保护映射和空闲区段表
+    private final Lock syncLock; // sync()互斥，映射项按数据落盘的顺序写入
+    private long[] offsets; // 第i项为第i+1页的区段位置
+    private int[] lengths;
+    private int pageCount;
+    private long dataEnd; // 数据文件中已分配区域的末尾
+    private final TreeMap<Integer, ArrayDeque<Long>> free; // 按扇区数索引的空闲区段
+    private List<long[]> released; // 已被替换、等待sync后重用的区段[位置, 扇区数]
+    private BitSet dirty; // 映射项有变化、尚未写入映射文件的页，下标为页号-1
+
+    private CompressedPageStore(RandomAccessFile dataFile, RandomAccessFile mapFile) {
+        this.dataFile = dataFile;
+        this.data = dataFile.getChannel();
+        this.mapFile = mapFile;
+        this.map = mapFile.getChannel();
+        this.lock = new ReentrantLock();
+        this.syncLock = new ReentrantLock();
+        this.offsets = new long[0];
+        this.lengths = new int[0];
+        this.free = new TreeMap<>();
+        this.released = new ArrayList<>();
+        this.dirty = new BitSet();
+    }
+
+    static CompressedPageStore create(String path) {
+        File f = new File(path + PageCacheImpl.DB_SUFFIX);
+        File m = new File(path + MAP_SUFFIX);
+        try {
+            if(!f.createNewFile() || !m.createNewFile()) {
+                Panic.panic(Error.FileExistsException);
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return open(f, m);
+    }
+
+    static CompressedPageStore open(String path) {
+        File f = new File(path + PageCacheImpl.DB_SUFFIX);
+        File m = new File(path + MAP_SUFFIX);
+        if(!f.exists() || !m.exists()) {
+            Panic.panic(Error.FileNotExistsException);
+        }
+        CompressedPageStore store = open(f, m);
+        store.load();
+        return store;
+    }
+
+    static boolean exists(String path) {
+        return new File(path + MAP_SUFFIX).exists();
+    }
+
+    private static CompressedPageStore open(File f, File m) {
+        if(!f.canRead() || !f.canWrite() || !m.canRead() || !m.canWrite()) {
+            Panic.panic(Error.FileCannotRWException);
+        }
+        try {
+            return new CompressedPageStore(new RandomAccessFile(f, "rw"), new RandomAccessFile(m, "rw"));
+        } catch (IOException e) {
+            Panic.panic(e);
+            return null;
+        }
+    }
+
+    // 读入映射文件，并把已分配区段之间的空隙加入空闲表
+    private void load() {
+        try {
+            int count = (int) (mapFile.length() / ENTRY_SIZE);
+            ByteBuffer buf = ByteBuffer.allocate(count * ENTRY_SIZE);
+            while(buf.hasRemaining()) {
+                if(map.read(buf, buf.position()) < 0) break;
+            }
+            ensureCapacity(count);
+            pageCount = count;
+            List<Integer> used = new ArrayList<>();
+            for(int i = 0; i < count; i ++) {
+                offsets[i] = Codec.getLong(buf, i * ENTRY_SIZE + OF_OFFSET);
+                lengths[i] = Codec.getInt(buf, i * ENTRY_SIZE + OF_LENGTH);
+                if(lengths[i] < 0 || lengths[i] > PageCache.PAGE_SIZE || offsets[i] < 0) {
+                    Panic.panic(Error.BadPageFileException);
+                }
+                if(lengths[i] > 0) {
+                    used.add(i);
+                }
+            }
+            // 按区段位置排序，找出空隙
+            used.sort((a, b) -> Long.compare(offsets[a], offsets[b]));
+            long pos = 0;
+            for(int i : used) {
+                if(offsets[i] > pos) {
+                    addFree(pos, (int) ((offsets[i] - pos) / SECTOR));
+                }
+                pos = Math.max(pos, offsets[i] + (long) sectors(lengths[i]) * SECTOR);
+            }
+            dataEnd = pos;
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    private static int sectors(int length) {
+        return (length + SECTOR - 1) / SECTOR;
+    }
+
+    private void ensureCapacity(int count) {
+        if(offsets.length >= count) return;
+        int cap = Math.max(count, offsets.length * 2);
+        offsets = Arrays.copyOf(offsets, cap);
+        lengths = Arrays.copyOf(lengths, cap);
+    }
+
+    private void addFree(long offset, int sectors) {
+        if(sectors <= 0) return;
+        free.computeIfAbsent(sectors, k -> new ArrayDeque<>()).add(offset);
+    }
+
+    // 分配sectors个扇区，优先使用能容纳的最小空闲区段，剩余部分放回空闲表
+    private long allocate(int sectors) {
+        Map.Entry<Integer, ArrayDeque<Long>> e = free.ceilingEntry(sectors);
+        if(e == null) {
+            long offset = dataEnd;
+            dataEnd += (long) sectors * SECTOR;
+            return offset;
+        }
+        long offset = e.getValue().poll();
+        if(e.getValue().isEmpty()) {
+            free.remove(e.getKey());
+        }
+        addFree(offset + (long) sectors * SECTOR, e.getKey() - sectors);
+        return offset;
+    }
+
+    @Override
+    public long pageCount() {
+        lock.lock();
+        try {
+            return pageCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void read(long pgNum, ByteBuffer dst) throws IOException {
+        byte[] page = PAGE_BUF.get();
+        byte[] packed = PACK_BUF.get();
+        int pos = dst.position();
+        for(; dst.limit() - pos >= PageCache.PAGE_SIZE; pos += PageCache.PAGE_SIZE, pgNum ++) {
+            long offset;
+            int length;
+            lock.lock();
+            try {
+                boolean exists = pgNum <= pageCount;
+                offset = exists ? offsets[(int) (pgNum - 1)] : 0;
+                length = exists ? lengths[(int) (pgNum - 1)] : 0;
+            } finally {
+                lock.unlock();
+            }
+            if(length == 0) {
+                Arrays.fill(page, (byte) 0);
+            } else {
+                byte[] target = length == PageCache.PAGE_SIZE ? page : packed;
+                ByteBuffer buf = ByteBuffer.wrap(target, 0, length);
+                while(buf.hasRemaining()) {
+                    if(data.read(buf, offset + buf.position()) < 0) {
+                        // 区段在数据文件之外
+                        throw (RuntimeException) Error.CorruptedPageException;
+                    }
+                }
+                if(target == packed && Lz.decompress(packed, 0, length, page, 0, PageCache.PAGE_SIZE) != PageCache.PAGE_SIZE) {
+                    throw (RuntimeException) Error.CorruptedPageException;
+                }
+            }
+            Codec.putBytes(dst, pos, page);
+        }
+        dst.position(pos);
+    }
+
+    @Override
+    public void write(long pgNum, ByteBuffer src) throws IOException {
+        if(pgNum > MAX_PAGES) {
+            throw new IOException("Compressed page store holds at most " + MAX_PAGES + " pages!");
+        }
+        byte[] page = PAGE_BUF.get();
+        byte[] packed = PACK_BUF.get();
+        Codec.getBytes(src, src.position(), page, 0, PageCache.PAGE_SIZE);
+        int length = Lz.compress(page, 0, PageCache.PAGE_SIZE, packed);
+        byte[] out = packed;
+        if(length >= PageCache.PAGE_SIZE) {
+            // 压缩后没有变小，按原样存放
+            out = page;
+            length = PageCache.PAGE_SIZE;
+        }
+        long offset;
+        lock.lock();
+        try {
+            offset = allocate(sectors(length));
+        } finally {
+            lock.unlock();
+        }
+        ByteBuffer buf = ByteBuffer.wrap(out, 0, length);
+        while(buf.hasRemaining()) {
+            data.write(buf, offset + buf.position());
+        }
+        // 数据写完后再更新内存中的映射，映射项由sync()在数据落盘后写入
+        lock.lock();
+        try {
+            if(pgNum > pageCount) {
+                ensureCapacity((int) pgNum);
+                pageCount = (int) pgNum;
+            }
+            int i = (int) (pgNum - 1);
+            if(lengths[i] > 0) {
+                released.add(new long[]{offsets[i], sectors(lengths[i])});
+            }
+            offsets[i] = offset;
+            lengths[i] = length;
+            dirty.set(i);
+        } finally {
+            lock.unlock();
+        }
+        src.position(src.position() + PageCache.PAGE_SIZE);
+    }
+
+    /**
+     * 取下此刻变化过的映射项和被替换的区段，先让数据落盘，再写入映射项并落盘，
+     * 之后被替换的区段才能重用。取下之后的写入留给下一次sync()
+     */
+    @Override
+    public void sync() throws IOException {
+        syncLock.lock();
+        try {
+            int[] pages;
+            ByteBuffer entries;
+            List<long[]> reusable;
+            lock.lock();
+            try {
+                pages = dirty.stream().toArray();
+                entries = ByteBuffer.allocate(pages.length * ENTRY_SIZE);
+                for(int k = 0; k < pages.length; k ++) {
+                    Codec.putLong(entries, k * ENTRY_SIZE + OF_OFFSET, offsets[pages[k]]);
+                    Codec.putInt(entries, k * ENTRY_SIZE + OF_LENGTH, lengths[pages[k]]);
+                }
+                dirty = new BitSet();
+                reusable = released;
+                released = new ArrayList<>();
+            } finally {
+                lock.unlock();
+            }
+            data.force(false);
+            writeEntries(pages, entries);
+            map.force(false);
+            lock.lock();
+            try {
+                for(long[] r : reusable) {
+                    addFree(r[0], (int) r[1]);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    // 写入映射项，页号连续的一段用一次写入完成；已被截掉的页不再写入
+    private void writeEntries(int[] pages, ByteBuffer entries) throws IOException {
+        lock.lock();
+        try {
+            int k = 0;
+            while(k < pages.length && pages[k] < pageCount) {
+                int j = k + 1;
+                while(j < pages.length && pages[j] == pages[j - 1] + 1 && pages[j] < pageCount) j ++;
+                ByteBuffer run = entries.duplicate();
+                run.limit(j * ENTRY_SIZE);
+                run.position(k * ENTRY_SIZE);
+                long pos = (long) pages[k] * ENTRY_SIZE;
+                while(run.hasRemaining()) {
+                    map.write(run, pos + run.position() - k * ENTRY_SIZE);
+                }
+                k = j;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void truncate(long maxPgNum) throws IOException {
+        lock.lock();
+        try {
+            for(int i = (int) Math.min(maxPgNum, pageCount); i < pageCount; i ++) {
+                if(lengths[i] > 0) {
+                    released.add(new long[]{offsets[i], sectors(lengths[i])});
+                }
+                lengths[i] = 0;
+            }
+            pageCount = (int) Math.min(pageCount, maxPgNum);
+            dirty.clear(pageCount, Math.max(pageCount, dirty.length()));
+            mapFile.setLength((long) pageCount * ENTRY_SIZE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // 尚未写入的映射项在关闭前落盘
+        sync();
+        data.close();
+        dataFile.close();
+        map.close();
+        mapFile.close();
+    }
+}
@@ -0,0 +1,154 @@
+package com.demo.db.bachend.dm.pageCache;
+
+import com.demo.db.bachend.err.Error;
+import com.demo.db.bachend.utils.Panic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 未压缩的页文件，第pgNum页位于文件的(pgNum-1)*PAGE_SIZE处
+ *
+ * 页的读写都使用带偏移量的FileChannel接口，不修改channel的position，因此无需加锁，
+ * 不同页的读写可以并发进行。
+ * 连续多页的聚集写入(gathering write)只能使用channel的position，由gatherLock串行化
+ */
+class FilePageStore implements PageStore {
+    private static final int ZERO_CHUNK = 1 << 20;
+    private final RandomAccessFile file;
+    private final FileChannel fc;
+    private final Lock gatherLock;
+
+    FilePageStore(RandomAccessFile file, FileChannel fc) {
+        this.file = file;
+        this.fc = fc;
+        this.gatherLock = new ReentrantLock();
+    }
+
+    static FilePageStore create(String path) {
+        File f = new File(path + PageCacheImpl.DB_SUFFIX);
+        try {
+            if(!f.createNewFile()) {
+                Panic.panic(Error.FileExistsException);
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return open(f);
+    }
+
+    static FilePageStore open(String path) {
+        File f = new File(path + PageCacheImpl.DB_SUFFIX);
+        if(!f.exists()) {
+            Panic.panic(Error.FileNotExistsException);
+        }
+        return open(f);
+    }
+
+    private static FilePageStore open(File f) {
+        if(!f.canRead() || !f.canWrite()) {
+            Panic.panic(Error.FileCannotRWException);
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            return new FilePageStore(raf, raf.getChannel());
+        } catch (IOException e) {
+            Panic.panic(e);
+            return null;
+        }
+    }
+
+    @Override
+    public long pageCount() {
+        long length = 0;
+        try {
+            length = file.length();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return length / PageCache.PAGE_SIZE;
+    }
+
+    @Override
+    public void read(long pgNum, ByteBuffer dst) throws IOException {
+        long offset = PageCacheImpl.pageOffSet(pgNum);
+        while(dst.hasRemaining()) {
+            int n = fc.read(dst, offset);
+            if(n < 0) {
+                //超出文件末尾的部分填0，页框可能是回收来的，不能保留旧内容
+                while(dst.hasRemaining()) dst.put((byte) 0);
+                break;
+            }
+            offset += n;
+        }
+    }
+
+    @Override
+    public void write(long pgNum, ByteBuffer src) throws IOException {
+        long offset = PageCacheImpl.pageOffSet(pgNum);
+        while(src.hasRemaining()) {
+            offset += fc.write(src, offset);
+        }
+    }
+
+    @Override
+    public void preallocate(long pages) throws IOException {
+        fillZero(fc, file.length(), PageCacheImpl.pageOffSet(pages + 1));
+    }
+
+    // 用0填充文件的[from, to)，真正分配磁盘块，而不是只改文件长度留下空洞
+    static void fillZero(FileChannel fc, long from, long to) throws IOException {
+        if(from >= to) return;
+        ByteBuffer zero = ByteBuffer.allocateDirect((int) Math.min(to - from, ZERO_CHUNK));
+        while(from < to) {
+            zero.clear();
+            zero.limit((int) Math.min(zero.capacity(), to - from));
+            while(zero.hasRemaining()) {
+                from += fc.write(zero, from);
+            }
+        }
+    }
+
+    @Override
+    public void write(long pgNum, ByteBuffer[] srcs) throws IOException {
+        gatherWrite(fc, gatherLock, PageCacheImpl.pageOffSet(pgNum), srcs);
+    }
+
+    // 从offset开始用一次系统调用写入多个缓冲区
+    static void gatherWrite(FileChannel fc, Lock lock, long offset, ByteBuffer[] srcs) throws IOException {
+        long remaining = 0;
+        for(ByteBuffer src : srcs) {
+            remaining += src.remaining();
+        }
+        lock.lock();
+        try {
+            fc.position(offset);
+            while(remaining > 0) {
+                remaining -= fc.write(srcs);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        fc.force(false);
+    }
+
+    @Override
+    public void truncate(long maxPgNum) throws IOException {
+        file.setLength(PageCacheImpl.pageOffSet(maxPgNum + 1));
+    }
+
+    @Override
+    public void close() throws IOException {
+        fc.close();
+        file.close();
+    }
+}
@@ -0,0 +1,40 @@
+package com.demo.db.bachend.dm.pageCache;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * 堆外页框池
+ * 创建时一次性分配所有页框，之后只在页框池内循环使用，页面缓存的内存占用固定，
+ * 页直接从文件读入页框，不经过堆上的数组，也不给GC带来压力。
+ */
+class FrameArena {
+    private static final int FRAMES_PER_CHUNK = (1 << 30) / PageCache.PAGE_SIZE; // 每块1GB
+
+    private final ArrayBlockingQueue<ByteBuffer> free;
+
+    FrameArena(int frames) {
+        free = new ArrayBlockingQueue<>(frames);
+        int left = frames;
+        while(left > 0) {
+            int n = Math.min(left, FRAMES_PER_CHUNK);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(n * PageCache.PAGE_SIZE);
+            for(int i = 0; i < n; i ++) {
+                chunk.limit((i + 1) * PageCache.PAGE_SIZE);
+                chunk.position(i * PageCache.PAGE_SIZE);
+                free.add(chunk.slice());
+            }
+            left -= n;
+        }
+    }
+
+    // 取一个空闲页框，没有空闲页框时返回null
+    ByteBuffer allocate() {
+        return free.poll();
+    }
+
+    void recycle(ByteBuffer frame) {
+        frame.clear();
+        free.offer(frame);
+    }
+}
@@ -1,63 +1,62 @@
 package com.demo.db.bachend.dm.pageCache;
 
+import com.demo.db.bachend.common.EvictionPolicy;
 import com.demo.db.bachend.dm.page.Page;
-import com.demo.db.bachend.err.Error;
-import com.demo.db.bachend.utils.Panic;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.RandomAccessFile;
-import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
+import java.util.function.ObjLongConsumer;
 
 public interface PageCache {
     public static final int PAGE_SIZE = 1 << 13;
-    int newPage(byte[] initData);
-    Page getPage(int pageNum) throws Exception;
+    long newPage(byte[] initData);
+    long newPages(int n, byte[] initData); //批量分配n个连续的新页，都以initData初始化，返回第一页的页号；n至少为1，initData不能全0
+    Page getPage(long pageNum) throws Exception;
+    CompletableFuture<Page> getPageAsync(long pageNum); //不阻塞调用线程，页在I/O线程中载入，用完同样需要release
     void close();
     void release(Page page);
-    void truncateByPgNum(int maxPgNum);
-    int getPageNum();
+    void truncateByPgNum(long maxPgNum);
+    long getPageNum();
     void flushPage(Page pg);
+    CompletableFuture<Void> flushPageAsync(Page pg); //写回调用时页的快照，之后的修改不影响这次写回
+    void checkpoint(); //将缓存中的脏页全部写回并fsync
+    void prefetch(long from, long to); //异步预读[from, to]范围内的页，载入后不被引用
+    void setVerify(boolean verify); //读入页时是否校验校验和；崩溃后关闭校验打开，重做日志并checkpoint后再开启
+    void scan(long from, long to, ObjLongConsumer<ByteBuffer> visitor); //先checkpoint，再绕过缓存从存储顺序读取[from, to]的页，逐页交给visitor，页不进入缓存
 
     public static PageCacheImpl create(String path, long memory) {
-        File f = new File(path + PageCacheImpl.DB_SUFFIX);
-        try {
-            if(!f.createNewFile()) {
-                Panic.panic(Error.FileExistsException);
-            }
-        } catch (Exception e) {
-            Panic.panic(e);
-        }
-        if(!f.canRead() || !f.canWrite()) {
-            Panic.panic(Error.FileCannotRWException);
+        return create(path, memory, PageCacheConfig.defaults());
+    }
+
+    public static PageCacheImpl create(String path, long memory, IntFunction<EvictionPolicy> policy) {
+        return create(path, memory, PageCacheConfig.defaults().policy(policy));
+    }
+
+    public static PageCacheImpl create(String path, long memory, PageCacheConfig config) {
+        PageStore store;
+        if(config.compressed) {
+            store = CompressedPageStore.create(path);
+        } else if(config.tablespaceDirs != null) {
+            store = TablespacePageStore.create(path, config.stripePages, config.tablespaceDirs);
+        } else {
+            store = FilePageStore.create(path);
         }
-        FileChannel fc = null;
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
-        } catch (FileNotFoundException e) {
-            Panic.panic(e);
+        if(config.checksum) {
+            store = ChecksumPageStore.create(path, store);
         }
-        return new PageCacheImpl(raf, fc, (int) memory / PAGE_SIZE);
+        return new PageCacheImpl(store, (int) (memory / PAGE_SIZE), config);
     }
 
     public static PageCacheImpl open(String path, long memory) {
-        File f = new File(path+PageCacheImpl.DB_SUFFIX);
-        if(!f.exists()) {
-            Panic.panic(Error.FileNotExistsException);
-        }
-        if(!f.canRead() || !f.canWrite()) {
-            Panic.panic(Error.FileCannotRWException);
-        }
-        FileChannel fc = null;
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
-        } catch (FileNotFoundException e) {
-            Panic.panic(e);
-        }
-        return new PageCacheImpl(raf, fc, (int) memory / PAGE_SIZE);
+        return open(path, memory, PageCacheConfig.defaults());
+    }
+
+    public static PageCacheImpl open(String path, long memory, IntFunction<EvictionPolicy> policy) {
+        return open(path, memory, PageCacheConfig.defaults().policy(policy));
+    }
+
+    public static PageCacheImpl open(String path, long memory, PageCacheConfig config) {
+        return new PageCacheImpl(PageStore.open(path), (int) (memory / PAGE_SIZE), config);
     }
 }
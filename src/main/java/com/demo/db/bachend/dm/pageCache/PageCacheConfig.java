@@ -0,0 +1,93 @@
+package com.demo.db.bachend.dm.pageCache;
+
+import com.demo.db.bachend.common.ClockPolicy;
+import com.demo.db.bachend.common.EvictionPolicy;
+import com.demo.db.bachend.dm.logger.Logger;
+
+import java.util.function.IntFunction;
+
+/**
+ * 页面缓存的可选配置
+ * policy  根据缓存页数构造替换策略，如ClockPolicy::new、LruKPolicy::new、TwoQPolicy::new
+ * offHeap 页使用预先分配的堆外页框，页框在页被驱逐后回收复用
+ * readAhead 检测到顺序访问后异步预读的页数，为0时关闭自动预读
+ * wal     关联的日志。写回页之前先保证日志已落盘到页LSN(WAL)，
+ *         数据页写回后不再fsync，只在检查点时fsync一次
+ * compressed 页写回时压缩存放，见CompressedPageStore，缓存中的页仍是未压缩的；
+ *         只在创建时生效，打开时根据是否存在映射文件判断
+ * ioThreads 执行getPageAsync()、flushPageAsync()的I/O线程数
+ * extent  新页从预先分配的区段中分配，文件每次扩展的字节数，为0时不预分配，见PageCacheImpl.newPages
+ * checksum 为每页记录校验和，读入时校验，见ChecksumPageStore；
+ *         只在创建时生效，打开时根据是否存在校验和文件判断
+ * verify  读入页时是否校验校验和，崩溃后打开、重做日志期间关闭，见PageCache.setVerify
+ * tablespace 页按条带分布到多个目录中的数据文件，见TablespacePageStore；
+ *         只在创建时生效，打开时根据是否存在表空间描述文件判断
+ */
+public class PageCacheConfig {
+    IntFunction<EvictionPolicy> policy = ClockPolicy::new;
+    boolean offHeap = false;
+    int readAhead = 32;
+    Logger wal = null;
+    boolean compressed = false;
+    int ioThreads = 4;
+    String[] tablespaceDirs = null;
+    int stripePages = 8;
+    boolean checksum = false;
+    boolean verify = true;
+    long extentPages = (1 << 20) / PageCache.PAGE_SIZE;
+
+    public static PageCacheConfig defaults() {
+        return new PageCacheConfig();
+    }
+
+    public PageCacheConfig policy(IntFunction<EvictionPolicy> policy) {
+        this.policy = policy;
+        return this;
+    }
+
+    public PageCacheConfig offHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+        return this;
+    }
+
+    public PageCacheConfig readAhead(int pages) {
+        this.readAhead = pages;
+        return this;
+    }
+
+    public PageCacheConfig wal(Logger logger) {
+        this.wal = logger;
+        return this;
+    }
+
+    public PageCacheConfig compressed(boolean compressed) {
+        this.compressed = compressed;
+        return this;
+    }
+
+    public PageCacheConfig ioThreads(int threads) {
+        this.ioThreads = threads;
+        return this;
+    }
+
+    public PageCacheConfig checksum(boolean checksum) {
+        this.checksum = checksum;
+        return this;
+    }
+
+    public PageCacheConfig verify(boolean verify) {
+        this.verify = verify;
+        return this;
+    }
+
+    public PageCacheConfig extent(long bytes) {
+        this.extentPages = bytes / PageCache.PAGE_SIZE;
+        return this;
+    }
+
+    public PageCacheConfig tablespace(int stripePages, String... dirs) {
+        this.stripePages = stripePages;
+        this.tablespaceDirs = dirs;
+        return this;
+    }
+}
@@ -1,104 +1,439 @@
 package com.demo.db.bachend.dm.pageCache;
 
 import com.demo.db.bachend.common.AbstractCache;
+import com.demo.db.bachend.common.ClockPolicy;
+import com.demo.db.bachend.common.EvictionPolicy;
+import com.demo.db.bachend.dm.logger.Logger;
+import com.demo.db.bachend.dm.page.FramePage;
 import com.demo.db.bachend.dm.page.Page;
 import com.demo.db.bachend.dm.page.PageImpl;
 import com.demo.db.bachend.err.Error;
+import com.demo.db.bachend.metrics.Counter;
+import com.demo.db.bachend.metrics.Histogram;
+import com.demo.db.bachend.metrics.Metrics;
 import com.demo.db.bachend.utils.Panic;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
 
 public class PageCacheImpl extends AbstractCache<Page> implements PageCache{
     private static final int MEM_MIN_LIM = 10;
     public static final String DB_SUFFIX = ".db";
 
-    private RandomAccessFile file;
-    private FileChannel fc;
-    private Lock fileLock;
+    private PageStore store;
 
-    private AtomicInteger pageNums;
+    private AtomicLong pageNums;
+    // 区段分配：文件按extentPages页一次扩展，allocatedTo为已预分配到的页号
+    private long extentPages;
+    private volatile long allocatedTo;
+    private Lock extendLock;
+    private PageFlusher flusher;
+    private FrameArena arena; // 堆外页框池，未开启时为null
+    private Logger wal; // 关联的日志，为null时每次写回页都fsync
+
+    // 预读：连续访问READ_AHEAD_TRIGGER个相邻页后，异步载入之后的readAhead个页
+    private static final int READ_AHEAD_TRIGGER = 4;
+    private static final int SCAN_PAGES = 128; // scan每次读取的页数
+    private int readAhead;
+    private ExecutorService prefetcher;
+    private AtomicLong lastPage; // 最近一次访问的页号
+    private AtomicInteger seqRun; // 连续访问相邻页的次数
+    private volatile long prefetchedTo; // 已提交预读的最大页号
+    private ExecutorService io; // 异步读写页的I/O线程
+
+    private Counter pagesRead;
+    private Counter pagesWritten;
+    private Histogram syncLatency;
 
     public PageCacheImpl(RandomAccessFile file, FileChannel fc, int maxResource) {
-        super(maxResource);
+        this(file, fc, maxResource, new ClockPolicy(maxResource));
+    }
+
+    public PageCacheImpl(RandomAccessFile file, FileChannel fc, int maxResource, EvictionPolicy policy) {
+        this(file, fc, maxResource, policy, PageCacheConfig.defaults());
+    }
+
+    public PageCacheImpl(RandomAccessFile file, FileChannel fc, int maxResource, PageCacheConfig config) {
+        this(file, fc, maxResource, config.policy.apply(maxResource), config);
+    }
+
+    private PageCacheImpl(RandomAccessFile file, FileChannel fc, int maxResource, EvictionPolicy policy, PageCacheConfig config) {
+        this(new FilePageStore(file, fc), maxResource, policy, config);
+    }
+
+    PageCacheImpl(PageStore store, int maxResource, PageCacheConfig config) {
+        this(store, maxResource, config.policy.apply(maxResource), config);
+    }
+
+    private PageCacheImpl(PageStore store, int maxResource, EvictionPolicy policy, PageCacheConfig config) {
+        super(maxResource, policy);
         if(maxResource < MEM_MIN_LIM) {
             Panic.panic(Error.MemTooSmallException);
         }
-        long length = 0;
+        this.store = store;
+        this.extentPages = config.extentPages;
+        this.extendLock = new ReentrantLock();
+        this.pageNums = new AtomicLong(highWaterMark(config.extentPages));
+        this.allocatedTo = pageNums.get();
+        store.setVerify(config.verify);
+        if(config.offHeap) {
+            // 额外的页框用于容纳已被驱逐、尚未写回的脏页
+            this.arena = new FrameArena(maxResource + maxResource / 4);
+        }
+        this.flusher = new PageFlusher(this, PageFlusher.CHECKPOINT_INTERVAL);
+        this.readAhead = config.readAhead;
+        this.wal = config.wal;
+        this.lastPage = new AtomicLong();
+        this.seqRun = new AtomicInteger();
+        this.pagesRead = metrics().counter("pagesRead");
+        this.pagesWritten = metrics().counter("pagesWritten");
+        this.syncLatency = metrics().histogram("syncLatency");
+        this.prefetcher = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "page-prefetcher");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger ioId = new AtomicInteger();
+        this.io = Executors.newFixedThreadPool(Math.max(config.ioThreads, 1), r -> {
+            Thread t = new Thread(r, "page-io-" + ioId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // 写回一页，在共享latch下复制后写回复制的内容，调用者不能持有该页的独占latch
+    public void flush(Page pg) {
+        writeBack(copyOf(pg));
+    }
+
+    // 写回不会再被修改的页，有关联日志时先让日志落盘到页LSN，页本身不必fsync
+    private void writeBack(Page pg) {
+        flushLog(pg.getPageLsn());
+        try{
+            store.write(pg.getPageNumber(), pg.getPageBuffer().duplicate());
+            if(Metrics.ENABLED) pagesWritten.inc();
+            if(wal == null) {
+                syncStore();
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    // WAL：页写回之前，修改它的日志必须先落盘
+    void flushLog(long lsn) {
+        if(wal != null && lsn > 0) {
+            wal.flush(lsn);
+        }
+    }
+
+    // 数据页写回后是否需要fsync，关联日志后只在检查点时fsync
+    boolean syncOnWrite() {
+        return wal == null;
+    }
+
+    // 写回一页但不fsync，供后台刷盘线程批量写回
+    void write(long pgNum, ByteBuffer data) {
         try {
-            length = file.length();
+            store.write(pgNum, data.duplicate());
+            if(Metrics.ENABLED) pagesWritten.inc();
         } catch (IOException e) {
             Panic.panic(e);
         }
-        this.file = file;
-        this.fc = fc;
-        this.fileLock = new ReentrantLock();
-        this.pageNums = new AtomicInteger((int)length / PAGE_SIZE);
     }
 
-    public void flush(Page pg) {
-        int pgNum = pg.getPageNumber();
-        long offset = pageOffSet(pgNum);
-        fileLock.lock();
-        try{
-            ByteBuffer buf = ByteBuffer.wrap(pg.getPageData());
-            fc.position(offset);
-            fc.write(buf);
-            fc.force(false);
+    // 写入从pgNum开始的连续若干页，不fsync
+    void write(long pgNum, ByteBuffer[] data) {
+        ByteBuffer[] srcs = new ByteBuffer[data.length];
+        for(int i = 0; i < data.length; i ++) {
+            srcs[i] = data[i].duplicate();
+        }
+        try {
+            store.write(pgNum, srcs);
+            if(Metrics.ENABLED) pagesWritten.add(srcs.length);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    void sync() {
+        try {
+            syncStore();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    private void syncStore() throws IOException {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        store.sync();
+        if(Metrics.ENABLED) syncLatency.recordSince(start);
+    }
+
+    // 复制缓存中所有脏页的内容和页LSN并清除脏标记，按页号排序
+    TreeMap<Long, Page> snapshotDirtyPages() {
+        TreeMap<Long, Page> dirty = new TreeMap<>();
+        for(Page pg : snapshot()) {
+            if(!pg.isDirty()) continue;
+            // 修改页的一方持有独占latch(见Page)，持共享latch时页不会被修改，
+            // 清除脏标记和复制之间不会漏掉修改
+            pg.lockShared();
+            try {
+                if(pg.isDirty()) {
+                    pg.setDirty(false);
+                    dirty.put(pg.getPageNumber(), copyLatched(pg));
+                }
+            } finally {
+                pg.unLockShared();
+            }
+        }
+        return dirty;
+    }
+
+    // 页已写回或未被修改时回收其页框
+    void recycle(Page pg) {
+        if(arena != null && pg instanceof FramePage) {
+            arena.recycle(pg.getPageBuffer());
+        }
+    }
+
+    @Override
+    public long newPage(byte[] initData) {
+        return newPages(1, initData);
+    }
+
+    /**
+     * 新页的初始内容不在日志中，写入后总是fsync，n个页用一次聚集写入和一次fsync完成
+     * 开启区段分配时页落在已预分配的区域中，写入不改变文件大小
+     * 打开时末尾全0的页被视为预分配而未使用的页，所以新页的初始内容不能全0
+     * n小于1时在分配页号之前就失败，不留下空洞
+     */
+    @Override
+    public long newPages(int n, byte[] initData) {
+        if(n < 1) {
+            throw (RuntimeException) Error.InvalidPageCountException;
+        }
+        if(isZero(initData)) {
+            throw (RuntimeException) Error.ZeroPageDataException;
+        }
+        long last = pageNums.addAndGet(n);
+        long first = last - n + 1;
+        try {
+            ensureAllocated(last);
+            ByteBuffer[] srcs = new ByteBuffer[n];
+            for(int i = 0; i < n; i ++) {
+                srcs[i] = ByteBuffer.wrap(initData);
+            }
+            store.write(first, srcs);
+            syncStore();
+            if(Metrics.ENABLED) pagesWritten.add(n);
         } catch (IOException e) {
             Panic.panic(e);
+        }
+        return first;
+    }
+
+    // 保证页号不大于pageNum的页都已预分配，不够时扩展一个或多个区段
+    private void ensureAllocated(long pageNum) throws IOException {
+        if(extentPages <= 0 || pageNum <= allocatedTo) return;
+        extendLock.lock();
+        try {
+            if(pageNum <= allocatedTo) return;
+            long to = (pageNum + extentPages - 1) / extentPages * extentPages;
+            store.preallocate(to);
+            allocatedTo = to;
         } finally {
-            fileLock.unlock();
+            extendLock.unlock();
+        }
+    }
+
+    /**
+     * 打开时确定已分配的页数。预分配的区段未用完时崩溃，文件末尾会留下全0的页，
+     * 最多回退一个区段，把末尾全0的页视为未分配并截掉。
+     * 正常关闭时文件已被截到已分配的页数，newPages也不接受全0的初始内容，
+     * 所以全0的页一定是未分配的页。
+     */
+    private long highWaterMark(long extentPages) {
+        long count = store.pageCount();
+        if(extentPages <= 0) {
+            return count;
+        }
+        long end = count;
+        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+        try {
+            while(count > 0 && end - count < extentPages) {
+                buf.clear();
+                try {
+                    store.read(count, buf);
+                } catch (RuntimeException e) {
+                    // 校验失败或无法解压的页一定是写过的页，交给恢复处理
+                    if(e != Error.BadPageChecksumException && e != Error.CorruptedPageException) throw e;
+                    break;
+                }
+                if(!isZero(buf.array())) break;
+                count --;
+            }
+            if(count < end) {
+                store.truncate(count);
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return count;
+    }
+
+    private static boolean isZero(byte[] raw) {
+        for(byte b : raw) {
+            if(b != 0) return false;
         }
+        return true;
+    }
+
+    @Override
+    public Page getPage(long pageNum) throws Exception {
+        detectSequential(pageNum);
+        return get(pageNum);
     }
 
     @Override
-    public int newPage(byte[] initData) {
-        int pageNum = pageNums.incrementAndGet();
-        Page page = new PageImpl(pageNum, initData, null);
-        flush(page);
-        return pageNum;
+    public CompletableFuture<Page> getPageAsync(long pageNum) {
+        detectSequential(pageNum);
+        return getAsync(pageNum, io);
+    }
+
+    // 检测顺序访问，访问到已预读区域的一半时继续向后预读
+    private void detectSequential(long pageNum) {
+        if(readAhead <= 0) return;
+        long last = lastPage.getAndSet(pageNum);
+        if(pageNum != last + 1) {
+            if(pageNum != last) seqRun.set(0);
+            return;
+        }
+        if(seqRun.incrementAndGet() < READ_AHEAD_TRIGGER) return;
+        long to = prefetchedTo;
+        if(pageNum + readAhead / 2 < to) return;
+        long from = Math.max(pageNum + 1, to + 1);
+        prefetch(from, pageNum + readAhead);
     }
 
     @Override
-    public Page getPage(int pageNum) throws Exception {
-        return get((long)pageNum);
+    public void prefetch(long from, long to) {
+        long last = Math.min(to, pageNums.get());
+        long first = Math.max(from, 1);
+        if(first > last) return;
+        if(last > prefetchedTo) prefetchedTo = last;
+        try {
+            prefetcher.execute(() -> {
+                long[] keys = new long[(int) (last - first + 1)];
+                for(int i = 0; i < keys.length; i ++) {
+                    keys[i] = first + i;
+                }
+                preload(keys);
+            });
+        } catch (RejectedExecutionException ignore) {
+            // 缓存已关闭
+        }
+    }
+
+    /**
+     * 恢复流程：以verify(false)打开，重做日志，checkpoint()让重做过的页带着新的校验和写回，
+     * 再setVerify(true)。关闭校验期间校验失败的页照常读入，不抛出BadPageChecksumException
+     */
+    @Override
+    public void setVerify(boolean verify) {
+        store.setVerify(verify);
+    }
+
+    /**
+     * 缓存中的脏页先写回，存储中的内容就是最新的，之后每次读SCAN_PAGES页，
+     * visitor拿到的ByteBuffer只在回调期间有效
+     */
+    @Override
+    public void scan(long from, long to, ObjLongConsumer<ByteBuffer> visitor) {
+        long last = Math.min(to, pageNums.get());
+        long pgNum = Math.max(from, 1);
+        if(pgNum > last) return;
+        checkpoint();
+        ByteBuffer run = ByteBuffer.allocate(SCAN_PAGES * PAGE_SIZE);
+        while(pgNum <= last) {
+            int n = (int) Math.min(SCAN_PAGES, last - pgNum + 1);
+            run.clear();
+            run.limit(n * PAGE_SIZE);
+            try {
+                store.read(pgNum, run);
+                if(Metrics.ENABLED) pagesRead.add(n);
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+            for(int k = 0; k < n; k ++) {
+                run.limit((k + 1) * PAGE_SIZE);
+                run.position(k * PAGE_SIZE);
+                visitor.accept(run.slice(), pgNum + k);
+            }
+            pgNum += n;
+        }
     }
 
     @Override
     public void close() {
+        prefetcher.shutdown();
+        io.shutdown();
+        try {
+            prefetcher.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            io.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         super.close();
+        flusher.close();
         try {
-            fc.close();
-            file.close();
+            // 截掉预分配而未使用的页
+            if(allocatedTo > pageNums.get()) {
+                store.truncate(pageNums.get());
+            }
+            store.close();
         } catch (IOException e) {
             Panic.panic(e);
         }
     }
     @Override
     public void release(Page page) {
-        release((long) page.getPageNumber());
+        release(page.getPageNumber());
     }
 
     @Override
-    public void truncateByPgNum(int maxPgNum) {
-        long size = maxPgNum + 1;
+    public void truncateByPgNum(long maxPgNum) {
+        flusher.discardAbove(maxPgNum);
+        extendLock.lock();
         try {
-            file.setLength(size);
+            store.truncate(maxPgNum);
+            allocatedTo = maxPgNum;
         } catch (IOException e) {
             Panic.panic(e);
+        } finally {
+            extendLock.unlock();
         }
         pageNums.set(maxPgNum);
     }
 
     @Override
-    public int getPageNum() {
-        return pageNums.intValue();
+    public long getPageNum() {
+        return pageNums.get();
     }
 
     @Override
@@ -106,31 +441,122 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache{
         flush(pg);
     }
 
+    /**
+     * 在调用线程中复制页，I/O线程写回的是复制时一致的页，日志落盘到复制时的页LSN，
+     * 之后对页的修改不会混入这次写回。调用者不能持有该页的独占latch
+     */
+    @Override
+    public CompletableFuture<Void> flushPageAsync(Page pg) {
+        Page snap = copyOf(pg);
+        return CompletableFuture.runAsync(() -> writeBack(snap), io);
+    }
+
+    // 在共享latch下复制页的内容和页LSN，修改页的一方持有独占latch，复制期间页不会变化
+    private static Page copyOf(Page pg) {
+        pg.lockShared();
+        try {
+            return copyLatched(pg);
+        } finally {
+            pg.unLockShared();
+        }
+    }
+
+    // 复制页，调用者已持有该页的latch
+    private static Page copyLatched(Page pg) {
+        byte[] copy = new byte[PAGE_SIZE];
+        pg.getPageBuffer().duplicate().get(copy);
+        Page snap = new PageImpl(pg.getPageNumber(), copy, null);
+        snap.setPageLsn(pg.getPageLsn());
+        return snap;
+    }
+
+    @Override
+    public void checkpoint() {
+        flusher.checkpoint();
+    }
+
     @Override
     protected Page getForCache(long key) throws Exception {
-       int pgNum = (int) key;
-       long offset = PageCacheImpl.pageOffSet(pgNum);
-       ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
-       fileLock.lock();
+       long pgNum = key;
+       // 页尚在等待后台写回，直接取回，不读磁盘上的旧数据
+       Page pending = flusher.take(pgNum);
+       if(pending != null) {
+           return pending;
+       }
+       // 页框用尽(大量脏页等待写回)时退回到堆上分配
+       ByteBuffer frame = arena == null ? null : arena.allocate();
+       ByteBuffer buf = frame == null ? ByteBuffer.allocate(PAGE_SIZE) : frame;
        try {
-           fc.position(offset);
-           fc.read(buf);
+           store.read(pgNum, buf);
+           if(Metrics.ENABLED) pagesRead.inc();
        } catch (IOException e) {
            Panic.panic(e);
        }
-       fileLock.unlock();
+       buf.clear();
+       if(frame != null) {
+           return new FramePage(pgNum, frame, this);
+       }
        return new PageImpl(pgNum, buf.array(), this);
     }
 
+    /**
+     * 批量载入，页号连续的一段用一次大的读取完成，再拆分到各个页中
+     */
+    @Override
+    protected List<Page> getForCache(long[] keys) throws Exception {
+        List<Page> pages = new ArrayList<>(keys.length);
+        ByteBuffer run = null;
+        int i = 0;
+        while(i < keys.length) {
+            Page pending = flusher.take(keys[i]);
+            if(pending != null) {
+                pages.add(pending);
+                i ++;
+                continue;
+            }
+            int j = i + 1;
+            while(j < keys.length && keys[j] == keys[j - 1] + 1 && !flusher.isPending(keys[j])) j ++;
+            int n = j - i;
+            if(run == null || run.capacity() < n * PAGE_SIZE) {
+                run = ByteBuffer.allocate(n * PAGE_SIZE);
+            }
+            run.clear();
+            run.limit(n * PAGE_SIZE);
+            try {
+                store.read(keys[i], run);
+                if(Metrics.ENABLED) pagesRead.add(n);
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+            for(int k = 0; k < n; k ++) {
+                long pgNum = keys[i + k];
+                ByteBuffer frame = arena == null ? null : arena.allocate();
+                if(frame != null) {
+                    frame.clear();
+                    frame.put(run.array(), k * PAGE_SIZE, PAGE_SIZE);
+                    frame.clear();
+                    pages.add(new FramePage(pgNum, frame, this));
+                } else {
+                    byte[] data = new byte[PAGE_SIZE];
+                    System.arraycopy(run.array(), k * PAGE_SIZE, data, 0, PAGE_SIZE);
+                    pages.add(new PageImpl(pgNum, data, this));
+                }
+            }
+            i = j;
+        }
+        return pages;
+    }
+
     @Override
     protected void releaseKeyForCache(Page obj) {
         if(obj.isDirty()) {
-            flush(obj);
-            obj.setDirty(false);
+            flusher.enqueue(obj);
+        } else {
+            recycle(obj);
         }
     }
 
-    public static long pageOffSet(int pageNum) {
-        return (long) (pageNum - 1) * PAGE_SIZE;
+    public static long pageOffSet(long pageNum) {
+        return (pageNum - 1) * PAGE_SIZE;
     }
 }
@@ -0,0 +1,258 @@
+package com.demo.db.bachend.dm.pageCache;
+
+import com.demo.db.bachend.dm.page.Page;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 后台刷盘线程
+ *
+ * 被驱逐的脏页先放入pending，由本线程按页号顺序批量写回，每批只fsync一次，
+ * 释放页的前台线程不再等待磁盘。写回完成前页仍留在pending中，
+ * 期间再次读取该页会直接从pending取回，而不会读到磁盘上的旧数据。
+ * 取出的一批页记在inFlight中，本线程正在用它们的内容写盘，
+ * 这时取回要等这批写完：页交还给缓存后就可能被修改，修改不能混进正在进行的写入，
+ * 否则日志尚未落盘的修改或修改了一半的页会写到数据文件中。
+ *
+ * 线程同时定期做检查点：把缓存中所有脏页写回并fsync。
+ * 数据页的写回顺序不影响恢复，因为日志总是先于页的修改写入，
+ * 恢复时由PageX.recoverInsert/recoverUpdate按日志重做或撤销。
+ *
+ * 缓存关联了日志时，每批写回前先让日志落盘到这批页的最大页LSN，
+ * 写回后不再fsync，数据文件只在检查点时fsync。
+ *
+ * 一批中页号连续的页合并为一次聚集写入(gathering write)，每次最多MAX_RUN页。
+ */
+class PageFlusher implements Runnable {
+    static final long CHECKPOINT_INTERVAL = TimeUnit.SECONDS.toNanos(30);
+    private static final int MAX_RUN = 128;
+
+    private final PageCacheImpl pc;
+    private final ConcurrentSkipListMap<Long, Page> pending;
+    private final long checkpointIntervalNanos;
+
+    private final Lock lock;
+    private final Condition wakeup;
+    private final Condition done;
+    private final Condition written; // 一批页写回完成
+    private final Set<Long> inFlight; // 正在写回的页号，由lock保护
+    private boolean signalled;
+    private boolean closed;
+    private long ckptRequested; // 已请求的检查点序号
+    private long ckptFinished; // 已完成的检查点序号
+
+    private final Thread thread;
+
+    PageFlusher(PageCacheImpl pc, long checkpointIntervalNanos) {
+        this.pc = pc;
+        this.pending = new ConcurrentSkipListMap<>();
+        this.checkpointIntervalNanos = checkpointIntervalNanos;
+        this.lock = new ReentrantLock();
+        this.wakeup = lock.newCondition();
+        this.done = lock.newCondition();
+        this.written = lock.newCondition();
+        this.inFlight = new HashSet<>();
+        this.thread = new Thread(this, "page-flusher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // 将被驱逐的脏页交给后台写回
+    void enqueue(Page pg) {
+        pending.put(pg.getPageNumber(), pg);
+        lock.lock();
+        try {
+            signalled = true;
+            wakeup.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 取回一个尚未写回的页，取回后由缓存重新负责该页。页正在写回时等待写完
+    Page take(long pgNum) {
+        if(!pending.containsKey(pgNum)) {
+            return null;
+        }
+        lock.lock();
+        try {
+            while(inFlight.contains(pgNum)) {
+                written.awaitUninterruptibly();
+            }
+            return pending.remove(pgNum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isPending(long pgNum) {
+        return pending.containsKey(pgNum);
+    }
+
+    // 丢弃页号大于maxPgNum的待写页
+    void discardAbove(long maxPgNum) {
+        lock.lock();
+        try {
+            // 等正在进行的写回结束，之后截断文件时不会再有页写到被截掉的位置
+            while(!inFlight.isEmpty()) {
+                written.awaitUninterruptibly();
+            }
+            for(Map.Entry<Long, Page> e : pending.tailMap(maxPgNum, false).entrySet()) {
+                if(pending.remove(e.getKey(), e.getValue())) {
+                    pc.recycle(e.getValue());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 请求一次检查点并等待其完成
+    void checkpoint() {
+        lock.lock();
+        try {
+            long target = ++ckptRequested;
+            wakeup.signal();
+            while(ckptFinished < target && !closed) {
+                done.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 停止后台线程，并把剩余的待写页全部写回
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            wakeup.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 关闭时也fsync，关联了日志时数据文件平时不fsync
+        flushPending(true);
+    }
+
+    @Override
+    public void run() {
+        long deadline = System.nanoTime() + checkpointIntervalNanos;
+        while(true) {
+            boolean exit;
+            boolean doCheckpoint;
+            long target;
+            lock.lock();
+            try {
+                long nanos = deadline - System.nanoTime();
+                while(!closed && !signalled && ckptRequested == ckptFinished && nanos > 0) {
+                    try {
+                        nanos = wakeup.awaitNanos(nanos);
+                    } catch (InterruptedException e) {
+                        nanos = 0;
+                    }
+                }
+                exit = closed;
+                target = ckptRequested;
+                doCheckpoint = !exit && (nanos <= 0 || ckptRequested > ckptFinished);
+                signalled = false;
+            } finally {
+                lock.unlock();
+            }
+            if(exit) return;
+            flushPending(doCheckpoint);
+            if(doCheckpoint) {
+                deadline = System.nanoTime() + checkpointIntervalNanos;
+                lock.lock();
+                try {
+                    ckptFinished = target;
+                    done.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * 按页号顺序写回pending中的页，检查点时先写回缓存中的脏页，整批只fsync一次
+     */
+    private void flushPending(boolean checkpoint) {
+        Map<Long, Page> dirty = checkpoint ? pc.snapshotDirtyPages() : Collections.emptyMap();
+        List<Map.Entry<Long, Page>> batch;
+        lock.lock();
+        try {
+            batch = new ArrayList<>(pending.entrySet());
+            for(Map.Entry<Long, Page> e : batch) {
+                inFlight.add(e.getKey());
+            }
+        } finally {
+            lock.unlock();
+        }
+        long maxLsn = 0;
+        for(Page pg : dirty.values()) {
+            maxLsn = Math.max(maxLsn, pg.getPageLsn());
+        }
+        for(Map.Entry<Long, Page> e : batch) {
+            maxLsn = Math.max(maxLsn, e.getValue().getPageLsn());
+        }
+        pc.flushLog(maxLsn);
+        // 合并后按页号排序，同一页以缓存中的脏页为准
+        TreeMap<Long, Page> all = new TreeMap<>();
+        for(Map.Entry<Long, Page> e : batch) {
+            all.put(e.getKey(), e.getValue());
+        }
+        all.putAll(dirty);
+        writeRuns(all);
+        lock.lock();
+        try {
+            for(Map.Entry<Long, Page> e : batch) {
+                if(pending.remove(e.getKey(), e.getValue())) {
+                    pc.recycle(e.getValue());
+                }
+            }
+            inFlight.clear();
+            written.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if(checkpoint || (!all.isEmpty() && pc.syncOnWrite())) {
+            pc.sync();
+        }
+    }
+
+    // 把页号连续的页合并成一次写入
+    private void writeRuns(TreeMap<Long, Page> pages) {
+        List<ByteBuffer> run = new ArrayList<>();
+        long first = 0;
+        for(Map.Entry<Long, Page> e : pages.entrySet()) {
+            if(!run.isEmpty() && (e.getKey() != first + run.size() || run.size() >= MAX_RUN)) {
+                pc.write(first, run.toArray(new ByteBuffer[0]));
+                run.clear();
+            }
+            if(run.isEmpty()) {
+                first = e.getKey();
+            }
+            run.add(e.getValue().getPageBuffer());
+        }
+        if(!run.isEmpty()) {
+            pc.write(first, run.toArray(new ByteBuffer[0]));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.demo.db.bachend.dm.pageCache;
+
+import com.demo.db.bachend.err.Error;
+import com.demo.db.bachend.utils.Panic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 离线校验整个页存储，数据库不能同时打开
+ *
+ * 页按CHUNK页一段分给多个线程并行读取和校验，返回校验失败的页号。
+ * 数据库非正常关闭后，恢复时只需重做涉及这些页的日志，校验通过的页可以跳过。
+ */
+public class PageScrubber {
+    private static final int CHUNK = 256;
+
+    /**
+     * 校验path处的页存储，返回校验失败的页号，升序
+     * 存储创建时没有开启校验和时抛出BadPageFileException
+     */
+    public static List<Long> scrub(String path, int threads) throws Exception {
+        if(!ChecksumPageStore.exists(path)) {
+            throw Error.BadPageFileException;
+        }
+        ChecksumPageStore store = (ChecksumPageStore) PageStore.open(path);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(threads, 1));
+        List<Long> bad = new ArrayList<>();
+        try {
+            long count = store.pageCount();
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for(long first = 1; first <= count; first += CHUNK) {
+                long from = first;
+                int n = (int) Math.min(CHUNK, count - first + 1);
+                futures.add(pool.submit(() -> store.verify(from, n)));
+            }
+            for(Future<List<Long>> f : futures) {
+                try {
+                    bad.addAll(f.get());
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        } finally {
+            pool.shutdown();
+            try {
+                store.close();
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+        }
+        Collections.sort(bad);
+        return bad;
+    }
+}
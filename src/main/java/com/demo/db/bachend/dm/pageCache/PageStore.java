@@ -0,0 +1,53 @@
+package com.demo.db.bachend.dm.pageCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 页的持久化存储，页面缓存通过它读写页
+ * 所有方法都可以被多个线程并发调用
+ */
+interface PageStore {
+    /**
+     * 按目录中已有的文件打开页存储：压缩存储、表空间或单个页文件，
+     * 存在校验和文件时再套上ChecksumPageStore
+     */
+    static PageStore open(String path) {
+        PageStore store;
+        if(CompressedPageStore.exists(path)) {
+            store = CompressedPageStore.open(path);
+        } else if(TablespacePageStore.exists(path)) {
+            store = TablespacePageStore.open(path);
+        } else {
+            store = FilePageStore.open(path);
+        }
+        if(ChecksumPageStore.exists(path)) {
+            store = ChecksumPageStore.open(path, store);
+        }
+        return store;
+    }
+
+    // 打开时已有的页数
+    long pageCount();
+    // 从pgNum开始读取连续的若干页填满dst，从未写过的页读出全0
+    void read(long pgNum, ByteBuffer dst) throws IOException;
+    // 写入一页，不保证落盘
+    void write(long pgNum, ByteBuffer src) throws IOException;
+    // 写入从pgNum开始的连续若干页，每个ByteBuffer一页，不保证落盘
+    default void write(long pgNum, ByteBuffer[] srcs) throws IOException {
+        for(int i = 0; i < srcs.length; i ++) {
+            write(pgNum + i, srcs[i]);
+        }
+    }
+    // 把存储扩展到至少pages页，扩展出的页读出全0，之后在其中写页不再改变文件大小
+    default void preallocate(long pages) throws IOException {
+    }
+    // 读页时是否校验页内容，只对记录了校验和的存储有意义
+    default void setVerify(boolean verify) {
+    }
+    // 把已写入的页全部落盘
+    void sync() throws IOException;
+    // 丢弃页号大于maxPgNum的页
+    void truncate(long maxPgNum) throws IOException;
+    void close() throws IOException;
+}
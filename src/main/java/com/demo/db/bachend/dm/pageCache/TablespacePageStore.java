@@ -0,0 +1,344 @@
+package com.demo.db.bachend.dm.pageCache;
+
+import com.demo.db.bachend.err.Error;
+import com.demo.db.bachend.utils.Codec;
+import com.demo.db.bachend.utils.Panic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 由多个数据文件组成的表空间，数据文件可以分布在不同的目录(磁盘)上
+ *
+ * 页按条带(stripe)轮流分布到各文件：每stripePages个连续的页为一个条带，
+ * 第s个条带放在第 s % 文件数 个文件中。顺序读写一段连续的页时会同时落在多个文件上，
+ * 跨文件的读取和sync()在各文件上并行执行。每个文件有独立的FileChannel。
+ *
+ * 表空间描述文件 path.ts：
+ * [Magic] [StripePages] [FileCount] [PathLength] [Path] ...
+ * 记录条带大小和各数据文件的路径，只在创建时写入
+ */
+class TablespacePageStore implements PageStore {
+    static final String TS_SUFFIX = ".ts";
+    private static final int MAGIC = 0x4D595453;
+
+    private final int stripePages;
+    private final RandomAccessFile[] files;
+    private final FileChannel[] channels;
+    private final Lock[] gatherLocks; // 每个文件的聚集写入锁
+    private final ExecutorService io; // 跨文件并行读取和sync
+
+    private TablespacePageStore(int stripePages, File[] paths) {
+        this.stripePages = stripePages;
+        this.files = new RandomAccessFile[paths.length];
+        this.channels = new FileChannel[paths.length];
+        this.gatherLocks = new Lock[paths.length];
+        for(int i = 0; i < paths.length; i ++) {
+            if(!paths[i].canRead() || !paths[i].canWrite()) {
+                Panic.panic(Error.FileCannotRWException);
+            }
+            try {
+                files[i] = new RandomAccessFile(paths[i], "rw");
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+            channels[i] = files[i].getChannel();
+            gatherLocks[i] = new ReentrantLock();
+        }
+        AtomicInteger id = new AtomicInteger();
+        this.io = Executors.newFixedThreadPool(paths.length, r -> {
+            Thread t = new Thread(r, "tablespace-io-" + id.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 创建表空间，dirs中每个目录放一个数据文件，文件名为 path的文件名.序号.db
+     */
+    static TablespacePageStore create(String path, int stripePages, String[] dirs) {
+        if(stripePages <= 0 || dirs.length == 0) {
+            Panic.panic(Error.BadPageFileException);
+        }
+        File ts = new File(path + TS_SUFFIX);
+        String name = new File(path).getName();
+        File[] paths = new File[dirs.length];
+        try {
+            if(!ts.createNewFile()) {
+                Panic.panic(Error.FileExistsException);
+            }
+            for(int i = 0; i < dirs.length; i ++) {
+                paths[i] = new File(dirs[i], name + "." + i + PageCacheImpl.DB_SUFFIX).getAbsoluteFile();
+                if(!paths[i].createNewFile()) {
+                    Panic.panic(Error.FileExistsException);
+                }
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        writeDescriptor(ts, stripePages, paths);
+        return new TablespacePageStore(stripePages, paths);
+    }
+
+    static TablespacePageStore open(String path) {
+        File ts = new File(path + TS_SUFFIX);
+        ByteBuffer buf = null;
+        try (RandomAccessFile raf = new RandomAccessFile(ts, "r")) {
+            buf = ByteBuffer.allocate((int) raf.length());
+            FileChannel fc = raf.getChannel();
+            while(buf.hasRemaining()) {
+                if(fc.read(buf, buf.position()) < 0) break;
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        if(buf.hasRemaining() || buf.capacity() < 12 || Codec.getInt(buf, 0) != MAGIC) {
+            Panic.panic(Error.BadPageFileException);
+        }
+        int stripePages = Codec.getInt(buf, 4);
+        int count = Codec.getInt(buf, 8);
+        File[] paths = new File[count];
+        int pos = 12;
+        for(int i = 0; i < count; i ++) {
+            if(pos + 4 > buf.capacity()) Panic.panic(Error.BadPageFileException);
+            int len = Codec.getInt(buf, pos);
+            if(len < 0 || pos + 4 + len > buf.capacity()) Panic.panic(Error.BadPageFileException);
+            byte[] raw = new byte[len];
+            Codec.getBytes(buf, pos + 4, raw, 0, len);
+            paths[i] = new File(new String(raw, StandardCharsets.UTF_8));
+            if(!paths[i].exists()) {
+                Panic.panic(Error.FileNotExistsException);
+            }
+            pos += 4 + len;
+        }
+        if(stripePages <= 0 || count <= 0) {
+            Panic.panic(Error.BadPageFileException);
+        }
+        return new TablespacePageStore(stripePages, paths);
+    }
+
+    static boolean exists(String path) {
+        return new File(path + TS_SUFFIX).exists();
+    }
+
+    private static void writeDescriptor(File ts, int stripePages, File[] paths) {
+        List<byte[]> raws = new ArrayList<>();
+        int size = 12;
+        for(File f : paths) {
+            byte[] raw = f.getPath().getBytes(StandardCharsets.UTF_8);
+            raws.add(raw);
+            size += 4 + raw.length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        Codec.putInt(buf, 0, MAGIC);
+        Codec.putInt(buf, 4, stripePages);
+        Codec.putInt(buf, 8, paths.length);
+        int pos = 12;
+        for(byte[] raw : raws) {
+            Codec.putInt(buf, pos, raw.length);
+            Codec.putBytes(buf, pos + 4, raw);
+            pos += 4 + raw.length;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(ts, "rw")) {
+            FileChannel fc = raf.getChannel();
+            while(buf.hasRemaining()) {
+                fc.write(buf, buf.position());
+            }
+            fc.force(false);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    // 第pgNum页所在的文件
+    private int fileOf(long pgNum) {
+        return (int) (((pgNum - 1) / stripePages) % files.length);
+    }
+
+    // 第pgNum页在其文件中的页序号(从0开始)
+    private long localIndex(long pgNum) {
+        long i = pgNum - 1;
+        long stripe = i / stripePages;
+        return (stripe / files.length) * stripePages + i % stripePages;
+    }
+
+    // 文件f中第local页(从0开始)对应的页号
+    private long pageOf(int f, long local) {
+        long stripe = (local / stripePages) * files.length + f;
+        return stripe * stripePages + local % stripePages + 1;
+    }
+
+    // 页号不大于maxPgNum的页中，位于文件f的页数
+    private long localCount(int f, long maxPgNum) {
+        long stripes = maxPgNum / stripePages;
+        long rem = maxPgNum % stripePages;
+        long full = stripes > f ? (stripes - f - 1) / files.length + 1 : 0;
+        return full * stripePages + (stripes % files.length == f ? rem : 0);
+    }
+
+    @Override
+    public long pageCount() {
+        long count = 0;
+        try {
+            for(int f = 0; f < files.length; f ++) {
+                long local = files[f].length() / PageCache.PAGE_SIZE;
+                if(local > 0) {
+                    count = Math.max(count, pageOf(f, local - 1));
+                }
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return count;
+    }
+
+    /**
+     * 连续的若干页按文件拆分成多段，每段是同一条带内的连续页，
+     * 多于一段时在各文件上并行读取
+     */
+    @Override
+    public void read(long pgNum, ByteBuffer dst) throws IOException {
+        List<ByteBuffer> parts = new ArrayList<>();
+        List<Long> pages = new ArrayList<>();
+        int pos = dst.position();
+        long pg = pgNum;
+        while(dst.limit() - pos >= PageCache.PAGE_SIZE) {
+            long inStripe = stripePages - (pg - 1) % stripePages;
+            int n = (int) Math.min(inStripe, (dst.limit() - pos) / PageCache.PAGE_SIZE);
+            ByteBuffer part = dst.duplicate();
+            part.position(pos);
+            part.limit(pos + n * PageCache.PAGE_SIZE);
+            parts.add(part);
+            pages.add(pg);
+            pos += n * PageCache.PAGE_SIZE;
+            pg += n;
+        }
+        if(parts.size() == 1) {
+            readRun(pages.get(0), parts.get(0));
+        } else if(parts.size() > 1) {
+            List<Future<Void>> futures = new ArrayList<>();
+            for(int i = 1; i < parts.size(); i ++) {
+                long first = pages.get(i);
+                ByteBuffer part = parts.get(i);
+                futures.add(io.submit(() -> {
+                    readRun(first, part);
+                    return null;
+                }));
+            }
+            readRun(pages.get(0), parts.get(0));
+            await(futures);
+        }
+        dst.position(pos);
+    }
+
+    // 读取同一条带内的连续页
+    private void readRun(long pgNum, ByteBuffer dst) throws IOException {
+        FileChannel fc = channels[fileOf(pgNum)];
+        long offset = localIndex(pgNum) * PageCache.PAGE_SIZE;
+        while(dst.hasRemaining()) {
+            int n = fc.read(dst, offset);
+            if(n < 0) {
+                //超出文件末尾的部分填0
+                while(dst.hasRemaining()) dst.put((byte) 0);
+                break;
+            }
+            offset += n;
+        }
+    }
+
+    @Override
+    public void write(long pgNum, ByteBuffer src) throws IOException {
+        FileChannel fc = channels[fileOf(pgNum)];
+        long offset = localIndex(pgNum) * PageCache.PAGE_SIZE;
+        while(src.hasRemaining()) {
+            offset += fc.write(src, offset);
+        }
+    }
+
+    @Override
+    public void preallocate(long pages) throws IOException {
+        for(int f = 0; f < files.length; f ++) {
+            FilePageStore.fillZero(channels[f], files[f].length(), localCount(f, pages) * PageCache.PAGE_SIZE);
+        }
+    }
+
+    /**
+     * 按条带拆分，同一条带内的连续页在文件中也连续，用一次聚集写入完成
+     */
+    @Override
+    public void write(long pgNum, ByteBuffer[] srcs) throws IOException {
+        int i = 0;
+        while(i < srcs.length) {
+            long pg = pgNum + i;
+            int n = (int) Math.min(stripePages - (pg - 1) % stripePages, srcs.length - i);
+            int f = fileOf(pg);
+            FilePageStore.gatherWrite(channels[f], gatherLocks[f], localIndex(pg) * PageCache.PAGE_SIZE,
+                    Arrays.copyOfRange(srcs, i, i + n));
+            i += n;
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        List<Future<Void>> futures = new ArrayList<>();
+        for(int f = 1; f < channels.length; f ++) {
+            FileChannel fc = channels[f];
+            futures.add(io.submit(() -> {
+                fc.force(false);
+                return null;
+            }));
+        }
+        channels[0].force(false);
+        await(futures);
+    }
+
+    @Override
+    public void truncate(long maxPgNum) throws IOException {
+        for(int f = 0; f < files.length; f ++) {
+            long local = localCount(f, maxPgNum);
+            if(files[f].length() > local * PageCache.PAGE_SIZE) {
+                files[f].setLength(local * PageCache.PAGE_SIZE);
+            }
+        }
+    }
+
+    private static void await(List<Future<Void>> futures) throws IOException {
+        IOException err = null;
+        for(Future<Void> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                err = new IOException(e);
+            } catch (ExecutionException e) {
+                err = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+        if(err != null) {
+            throw err;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        io.shutdown();
+        for(int f = 0; f < files.length; f ++) {
+            channels[f].close();
+            files[f].close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.demo.db.bachend.dm.pageIndex;
+
+import com.demo.db.bachend.dm.page.PageX;
+import com.demo.db.bachend.dm.pageCache.PageCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 页面空闲空间索引
+ *
+ * 把一页的空间划分为INTERVALS_NO个区间，第i个区间的页至少有i*THRESHOLD字节空闲，
+ * 查找能容纳spaceSize字节的页时从对应区间开始向上找，最多检查INTERVALS_NO个区间，
+ * 不需要读取任何页。
+ *
+ * select取出的页从索引中移除，由调用者独占地插入数据，
+ * 插入时用PageX.insert(pg, raw, index)，按新的空闲空间放回。
+ */
+public class PageIndex {
+    // 将一页划分成40个区间
+    private static final int INTERVALS_NO = 40;
+    private static final int THRESHOLD = PageCache.PAGE_SIZE / INTERVALS_NO;
+
+    private Lock lock;
+    private List<List<PageInfo>> lists;
+
+    public PageIndex() {
+        lock = new ReentrantLock();
+        lists = new ArrayList<>(INTERVALS_NO + 1);
+        for(int i = 0; i < INTERVALS_NO + 1; i ++) {
+            lists.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * 打开数据库时扫描除第一页外的所有页，重建索引
+     * 页直接从存储顺序读取，不进入缓存，此时还不能有其他线程修改页
+     */
+    public static PageIndex build(PageCache pc) {
+        PageIndex index = new PageIndex();
+        pc.scan(2, pc.getPageNum(), (buf, pgNum) -> index.add(pgNum, PageX.getFreeSpace(buf)));
+        return index;
+    }
+
+    public void add(long pgNum, int freeSpace) {
+        lock.lock();
+        try {
+            int number = freeSpace / THRESHOLD;
+            lists.get(number).add(new PageInfo(pgNum, freeSpace));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出一个至少有spaceSize字节空闲的页，没有时返回null
+     */
+    public PageInfo select(int spaceSize) {
+        lock.lock();
+        try {
+            int number = spaceSize / THRESHOLD;
+            // 区间内的页空闲空间可能小于spaceSize，向上取整到下一个区间
+            if(number * THRESHOLD < spaceSize) number ++;
+            while(number <= INTERVALS_NO) {
+                List<PageInfo> list = lists.get(number);
+                if(list.isEmpty()) {
+                    number ++;
+                    continue;
+                }
+                return list.remove(list.size() - 1);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
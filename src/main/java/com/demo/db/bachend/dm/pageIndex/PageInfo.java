@@ -0,0 +1,11 @@
+package com.demo.db.bachend.dm.pageIndex;
+
+public class PageInfo {
+    public long pgNum;
+    public int freeSpace;
+
+    public PageInfo(long pgNum, int freeSpace) {
+        this.pgNum = pgNum;
+        this.freeSpace = freeSpace;
+    }
+}
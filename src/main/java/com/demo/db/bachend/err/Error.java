@@ -9,9 +9,15 @@ public class Error {
 
     // dm
     public static final Exception BadLogFileException = new RuntimeException("Bad log file!");
+    public static final Exception BadPageFileException = new RuntimeException("Bad page file!");
+    public static final Exception BadPageChecksumException = new RuntimeException("Bad page checksum!");
+    public static final Exception CorruptedPageException = new RuntimeException("Page is corrupted!");
     public static final Exception MemTooSmallException = new RuntimeException("Memory too small!");
     public static final Exception DataTooLargeException = new RuntimeException("Data too large!");
     public static final Exception DatabaseBusyException = new RuntimeException("Database is busy!");
+    public static final Exception InvalidSlotException = new RuntimeException("Invalid slot!");
+    public static final Exception ZeroPageDataException = new RuntimeException("Page data must not be all zero!");
+    public static final Exception InvalidPageCountException = new RuntimeException("Invalid page count!");
 
     // tm
     public static final Exception BadTIDFileException = new RuntimeException("Bad XID file!");
@@ -0,0 +1,22 @@
+package com.demo.db.bachend.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 计数器，基于LongAdder分段累加，并发递增时互不争用
+ */
+public class Counter {
+    private final LongAdder adder = new LongAdder();
+
+    public void inc() {
+        adder.increment();
+    }
+
+    public void add(long n) {
+        adder.add(n);
+    }
+
+    public long get() {
+        return adder.sum();
+    }
+}
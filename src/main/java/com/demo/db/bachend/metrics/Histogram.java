@@ -0,0 +1,105 @@
+package com.demo.db.bachend.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对数-线性分桶的直方图，与HdrHistogram的分桶方式相同
+ *
+ * 每个2的幂区间再等分为SUB_COUNT个桶，相对误差不超过1/SUB_COUNT，
+ * 桶数固定，记录一个值只需一次原子递增，不分配内存。
+ * 用于记录以纳秒为单位的延迟，也可以记录字节数等其他非负值。
+ */
+public class Histogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        if(value < 0) value = 0;
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    // 记录从startNanos到现在经过的时间
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    static int index(long value) {
+        if(value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & (SUB_COUNT - 1));
+    }
+
+    // 桶中最大的值
+    static long highestValue(int index) {
+        if(index < SUB_COUNT) {
+            return index;
+        }
+        int shift = (index >> SUB_BITS) - 1;
+        long low = (long) (SUB_COUNT + (index & (SUB_COUNT - 1))) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * 第p百分位的值(0 < p <= 100)，返回所在桶的上界，不超过记录过的最大值
+     */
+    public long percentile(double p) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; i ++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if(n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(p / 100 * n);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i ++) {
+            seen += snapshot[i];
+            if(seen >= rank) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("count", getCount());
+        m.put("mean", getMean());
+        m.put("p50", percentile(50));
+        m.put("p90", percentile(90));
+        m.put("p99", percentile(99));
+        m.put("p999", percentile(99.9));
+        m.put("max", getMax());
+        return m;
+    }
+}
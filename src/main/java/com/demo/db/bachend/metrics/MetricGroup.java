@@ -0,0 +1,51 @@
+package com.demo.db.bachend.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一个组件实例的一组指标，按名字创建计数器和直方图
+ * 组件在构造时取得指标对象并保存在字段中，记录时不再按名字查找
+ */
+public class MetricGroup {
+    private final String type;
+    private final String name;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    MetricGroup(String type, String name) {
+        this.type = type;
+        this.name = name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /**
+     * 所有指标的当前值，计数器为Long，直方图展开为name.count、name.p99等
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        counters.keySet().stream().sorted().forEach(k -> m.put(k, counters.get(k).get()));
+        histograms.keySet().stream().sorted().forEach(k -> {
+            for(Map.Entry<String, Object> e : histograms.get(k).snapshot().entrySet()) {
+                m.put(k + "." + e.getKey(), e.getValue());
+            }
+        });
+        return m;
+    }
+}
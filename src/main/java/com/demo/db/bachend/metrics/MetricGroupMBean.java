@@ -0,0 +1,73 @@
+package com.demo.db.bachend.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+import java.util.Map;
+
+/**
+ * 把一个MetricGroup作为只读的DynamicMBean导出，每个指标是一个属性
+ */
+class MetricGroupMBean implements DynamicMBean {
+    private final MetricGroup group;
+
+    MetricGroupMBean(MetricGroup group) {
+        this.group = group;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Object v = group.snapshot().get(attribute);
+        if(v == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return v;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        // 指标都是只读属性，没有可写的属性
+        throw new AttributeNotFoundException("Metrics are read only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Object> snapshot = group.snapshot();
+        AttributeList list = new AttributeList();
+        for(String a : attributes) {
+            if(snapshot.containsKey(a)) {
+                list.add(new Attribute(a, snapshot.get(a)));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        // 没有暴露任何操作
+        throw new ReflectionException(new NoSuchMethodException(actionName), actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Object> snapshot = group.snapshot();
+        MBeanAttributeInfo[] attrs = new MBeanAttributeInfo[snapshot.size()];
+        int i = 0;
+        for(Map.Entry<String, Object> e : snapshot.entrySet()) {
+            attrs[i ++] = new MBeanAttributeInfo(e.getKey(), e.getValue().getClass().getName(),
+                    e.getKey(), true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), group.getType() + " metrics", attrs,
+                null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,82 @@
+package com.demo.db.bachend.metrics;
+
+import com.demo.db.bachend.utils.Panic;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 指标的开关与注册表
+ *
+ * 通过-Dmydb.metrics=true开启。ENABLED是static final常量，
+ * 关闭时热路径上的if(Metrics.ENABLED)分支会被JIT整个消除，不产生任何开销。
+ *
+ * 开启时每个组件实例的MetricGroup注册为一个JMX MBean：
+ * com.demo.db:type=类型,name=类型-序号
+ * 也可以通过snapshot()一次取得所有指标的当前值。
+ */
+public class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("mydb.metrics");
+    private static final String DOMAIN = "com.demo.db";
+
+    private static final Map<String, MetricGroup> groups = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicInteger> ids = new ConcurrentHashMap<>();
+
+    /**
+     * 为一个组件实例创建指标组，开启时同时注册到JMX
+     */
+    public static MetricGroup newGroup(String type) {
+        int id = ids.computeIfAbsent(type, k -> new AtomicInteger()).incrementAndGet();
+        MetricGroup group = new MetricGroup(type, type + "-" + id);
+        if(!ENABLED) {
+            return group;
+        }
+        groups.put(group.getName(), group);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new MetricGroupMBean(group), objectName(group));
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        return group;
+    }
+
+    /**
+     * 组件关闭时注销其指标组
+     */
+    public static void remove(MetricGroup group) {
+        if(groups.remove(group.getName()) == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(group);
+            if(server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+    }
+
+    /**
+     * 所有已注册指标组的当前值，按组名排序
+     */
+    public static Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> m = new LinkedHashMap<>();
+        for(MetricGroup g : new TreeMap<>(groups).values()) {
+            m.put(g.getName(), g.snapshot());
+        }
+        return m;
+    }
+
+    private static ObjectName objectName(MetricGroup group) throws Exception {
+        return new ObjectName(DOMAIN + ":type=" + group.getType() + ",name=" + group.getName());
+    }
+}
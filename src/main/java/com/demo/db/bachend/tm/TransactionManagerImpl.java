@@ -1,16 +1,38 @@
 package com.demo.db.bachend.tm;
 
 import com.demo.db.bachend.err.Error;
+import com.demo.db.bachend.metrics.Counter;
+import com.demo.db.bachend.metrics.Histogram;
+import com.demo.db.bachend.metrics.MetricGroup;
+import com.demo.db.bachend.metrics.Metrics;
+import com.demo.db.bachend.utils.Codec;
 import com.demo.db.bachend.utils.Panic;
-import com.demo.db.bachend.utils.Parser;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * tid文件格式：
+ * [TidCounter 8B] [Status of tid 1] [Status of tid 2] ...
+ * TidCounter为已预留的最大tid，文件中有其之前所有tid的状态
+ *
+ * tid按TID_BLOCK个一块预留：预留时把整块的状态写为aborted并落盘，再更新TidCounter并落盘。
+ * begin()只在内存中原子地递增tid，块用完时才写文件，事务开始的状态不写入文件。
+ * 因此崩溃后重新打开时，预留了但未使用的tid和开始了但未结束的事务在文件中都是aborted，
+ * 两者都没有提交，按aborted处理即可。预留写了一半(状态已写、TidCounter未更新)时，
+ * 打开时截掉多出的部分。
+ *
+ * 打开时把所有事务状态读入内存，状态变更先写文件再写内存，
+ * 查询事务状态只读内存，不产生系统调用，可被多个线程并发调用。
+ * 内存中的状态按块(chunk)存放，扩容时只追加新块，已有的块不会被复制，
+ * 因此状态的写入无需与扩容互斥。
+ */
 public class TransactionManagerImpl implements TransactionManager{
     //存储事务信息头文件，代表事务的数量,占用8B
     static final int LEN_TID_HEADER_LENGTH = 8;
@@ -23,17 +45,43 @@ public class TransactionManagerImpl implements TransactionManager{
     // 超级事务，永远为committed状态
     public static final long SUPER_TID = 0;
     static final String TID_SUFFIX = ".tid";
+    // 内存中每块存放的事务状态个数
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    // 每次预留的tid个数
+    static final int TID_BLOCK = 1024;
 
     private FileChannel fc;
-    private long tidCounter;
-    private Lock counterLock;
+    private volatile long tidCounter; // 已预留的最大tid
+    private final AtomicLong lastTid; // 已分配的最大tid
+    private Lock counterLock; // 预留tid时持有
     private RandomAccessFile file;
+    private final ByteBuffer headerBuf; // 持有counterLock时使用
+    // 每个线程复用的状态写入缓冲区，commit/abort可能并发
+    private static final ThreadLocal<ByteBuffer> STATUS_BUF = ThreadLocal.withInitial(() -> ByteBuffer.allocate(TID_FIELD_SIZE));
+    private volatile byte[][] status; // status[(tid-1) >> CHUNK_SHIFT][(tid-1) & (CHUNK_SIZE-1)]
+
+    private final MetricGroup metrics;
+    private final Counter begins;
+    private final Counter commits;
+    private final Counter aborts;
+    private final Histogram fsyncLatency;
 
     TransactionManagerImpl(RandomAccessFile f, FileChannel fc) {
         this.file = f;
         this.fc = fc;
         counterLock = new ReentrantLock();
+        lastTid = new AtomicLong();
+        headerBuf = ByteBuffer.allocate(LEN_TID_HEADER_LENGTH);
+        status = new byte[0][];
+        metrics = Metrics.newGroup("TransactionManager");
+        begins = metrics.counter("begins");
+        commits = metrics.counter("commits");
+        aborts = metrics.counter("aborts");
+        fsyncLatency = metrics.histogram("fsyncLatency");
         checkTIDCounter();
+        loadStatus();
+        lastTid.set(tidCounter);
     }
     /*
     检测tid文件是否合法
@@ -48,91 +96,153 @@ public class TransactionManagerImpl implements TransactionManager{
         if(fileLen < LEN_TID_HEADER_LENGTH) {
             Panic.panic(Error.BadTIDFileException);
         }
-        ByteBuffer buf = ByteBuffer.allocate(LEN_TID_HEADER_LENGTH);
+        headerBuf.clear();
         try {
-            fc.position(0);
-            fc.read(buf);
+            fc.read(headerBuf, 0);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        this.tidCounter = Parser.parseLong(buf.array());
-        long end = getTidPosition(tidCounter);
-        if(end != fileLen) {
+        this.tidCounter = Codec.getLong(headerBuf, 0);
+        long end = getTidPosition(tidCounter + 1);
+        if(end > fileLen) {
             Panic.panic(Error.BadTIDFileException);
         }
+        if(end < fileLen) {
+            // 上次预留时状态已写入而TidCounter未更新，这部分tid从未分配
+            try {
+                file.setLength(end);
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+        }
+    }
+    //把文件中所有事务的状态读入内存
+    private void loadStatus() {
+        ensureCapacity(tidCounter);
+        ByteBuffer buf = ByteBuffer.allocate(CHUNK_SIZE);
+        for(long tid = 1; tid <= tidCounter; tid += CHUNK_SIZE) {
+            int len = (int) Math.min(CHUNK_SIZE, tidCounter - tid + 1);
+            buf.clear();
+            buf.limit(len);
+            long offset = getTidPosition(tid);
+            try {
+                while(buf.hasRemaining()) {
+                    int n = fc.read(buf, offset + buf.position());
+                    if(n < 0) Panic.panic(Error.BadTIDFileException);
+                }
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+            System.arraycopy(buf.array(), 0, status[(int)((tid - 1) >>> CHUNK_SHIFT)], 0, len);
+        }
+    }
+    //保证内存中能存放tid及之前所有事务的状态
+    private void ensureCapacity(long tid) {
+        int chunks = (int)((tid + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+        byte[][] cur = status;
+        if(chunks <= cur.length) return;
+        byte[][] next = Arrays.copyOf(cur, Math.max(chunks, cur.length * 2));
+        for(int i = cur.length; i < next.length; i ++) {
+            next[i] = new byte[CHUNK_SIZE];
+        }
+        status = next;
     }
     //根据事务tid取得在文件中的位置
     private long getTidPosition(long tid) {
         return LEN_TID_HEADER_LENGTH + (tid - 1) * TID_FIELD_SIZE;
     }
-    //将TID加1， 更新TIDHeader
-    private void incrTIDCounter() {
-        tidCounter++;
-        ByteBuffer buf = ByteBuffer.wrap(Parser.long2Byte(tidCounter));
+    //预留tid之后的一块tid，先落盘这块的状态，再落盘TIDHeader
+    private void reserveTIDs(long tid) {
+        counterLock.lock();
+        try {
+            while(tid > tidCounter) {
+                long from = tidCounter + 1;
+                long to = tidCounter + TID_BLOCK;
+                ensureCapacity(to);
+                byte[] aborted = new byte[TID_BLOCK * TID_FIELD_SIZE];
+                Arrays.fill(aborted, FIELD_TRAN_ABORTED);
+                ByteBuffer buf = ByteBuffer.wrap(aborted);
+                try {
+                    while(buf.hasRemaining()) {
+                        fc.write(buf, getTidPosition(from) + buf.position());
+                    }
+                } catch (IOException e) {
+                    Panic.panic(e);
+                }
+                force();
+                writeTIDCounter(to);
+                tidCounter = to;
+            }
+        } finally {
+            counterLock.unlock();
+        }
+    }
+    // 更新TIDHeader，持有counterLock时调用
+    private void writeTIDCounter(long counter) {
+        headerBuf.clear();
+        Codec.putLong(headerBuf, 0, counter);
         try {
-            fc.position(0);
-            fc.write(buf);
+            fc.write(headerBuf, 0);
         } catch (IOException e) {
             Panic.panic(e);
         }
+        force(); //强迫写入需要更新的数据
+    }
+    private void force() {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
         try {
-            fc.force(false); //强迫写入需要更新的数据
+            fc.force(false);
         } catch (IOException e) {
             Panic.panic(e);
         }
+        if(Metrics.ENABLED) fsyncLatency.recordSince(start);
     }
     //更新事务的状态
     private void updateTID(long tid, byte status) {
         long offset = getTidPosition(tid);
-        byte[] tmp = new byte[TID_FIELD_SIZE];
-        tmp[0] = status;
-        ByteBuffer buf = ByteBuffer.wrap(tmp);
+        ByteBuffer buf = STATUS_BUF.get();
+        buf.clear();
+        buf.put(0, status);
         try {
-            fc.position(offset);
-            fc.write(buf);
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
-        try {
-            fc.force(false);
+            fc.write(buf, offset);
         } catch (IOException e) {
             Panic.panic(e);
         }
+        force();
+        // 落盘之后再更新内存，查询到的状态一定已经持久化
+        this.status[(int)((tid - 1) >>> CHUNK_SHIFT)][(int)((tid - 1) & (CHUNK_SIZE - 1))] = status;
     }
     //开启一个事务
     @Override
     public long begin() {
-        counterLock.lock();
-        try {
-            long tid = tidCounter + 1;
-            updateTID(tid, FIELD_TRAN_ACTIVE);
-            incrTIDCounter();
-            return tid;
-        } finally {
-            counterLock.unlock();
+        long tid = lastTid.incrementAndGet();
+        if(tid > tidCounter) {
+            reserveTIDs(tid);
         }
+        // 预留的块在内存中初始为active，文件中为aborted，见类注释
+        this.status[(int)((tid - 1) >>> CHUNK_SHIFT)][(int)((tid - 1) & (CHUNK_SIZE - 1))] = FIELD_TRAN_ACTIVE;
+        if(Metrics.ENABLED) begins.inc();
+        return tid;
     }
     //提交事务
     @Override
     public void commit(long tid) {
         updateTID(tid, FIELD_TRAN_COMMITTED);
+        if(Metrics.ENABLED) commits.inc();
     }
     //回滚事务
     @Override
     public void abort(long tid) {
         updateTID(tid, FIELD_TRAN_ABORTED);
+        if(Metrics.ENABLED) aborts.inc();
     }
 
     private boolean checkTID(long tid, byte status) {
-        long offset = getTidPosition(tid);
-        ByteBuffer buf = ByteBuffer.wrap(new byte[TID_FIELD_SIZE]);
-        try {
-            fc.position(offset);
-            fc.read(buf);
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
-        return buf.array()[0] == status;
+        byte[][] s = this.status;
+        int chunk = (int)((tid - 1) >>> CHUNK_SHIFT);
+        // 尚未分配的事务与原先读到文件末尾之后一样，视为active
+        byte st = chunk < s.length ? s[chunk][(int)((tid - 1) & (CHUNK_SIZE - 1))] : FIELD_TRAN_ACTIVE;
+        return st == status;
     }
 
     @Override
@@ -155,6 +265,7 @@ public class TransactionManagerImpl implements TransactionManager{
 
     @Override
     public void close() {
+        Metrics.remove(metrics);
         try {
             fc.close();
             file.close();
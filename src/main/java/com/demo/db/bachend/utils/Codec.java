@@ -0,0 +1,103 @@
+package com.demo.db.bachend.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 原地读写基本类型的编解码工具，所有方法都直接在给定偏移处读写，不创建临时对象
+ * 字节序统一为大端，与Parser及已有文件格式一致
+ */
+public class Codec {
+    public static short getShort(byte[] b, int off) {
+        return (short) (((b[off] & 0xff) << 8) | (b[off + 1] & 0xff));
+    }
+
+    public static void putShort(byte[] b, int off, short v) {
+        b[off] = (byte) (v >>> 8);
+        b[off + 1] = (byte) v;
+    }
+
+    public static int getInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24)
+                | ((b[off + 1] & 0xff) << 16)
+                | ((b[off + 2] & 0xff) << 8)
+                | (b[off + 3] & 0xff);
+    }
+
+    public static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    public static long getLong(byte[] b, int off) {
+        return ((long) getInt(b, off) << 32) | (getInt(b, off + 4) & 0xffffffffL);
+    }
+
+    public static void putLong(byte[] b, int off, long v) {
+        putInt(b, off, (int) (v >>> 32));
+        putInt(b, off + 4, (int) v);
+    }
+
+    public static short getShort(ByteBuffer buf, int off) {
+        return buf.getShort(off);
+    }
+
+    public static void putShort(ByteBuffer buf, int off, short v) {
+        buf.putShort(off, v);
+    }
+
+    public static int getInt(ByteBuffer buf, int off) {
+        return buf.getInt(off);
+    }
+
+    public static void putInt(ByteBuffer buf, int off, int v) {
+        buf.putInt(off, v);
+    }
+
+    public static long getLong(ByteBuffer buf, int off) {
+        return buf.getLong(off);
+    }
+
+    public static void putLong(ByteBuffer buf, int off, long v) {
+        buf.putLong(off, v);
+    }
+
+    /**
+     * 把src[srcOff, srcOff+len)写入dst的off处，不改变dst的position
+     */
+    public static void putBytes(ByteBuffer dst, int off, byte[] src, int srcOff, int len) {
+        if(dst.hasArray()) {
+            System.arraycopy(src, srcOff, dst.array(), dst.arrayOffset() + off, len);
+            return;
+        }
+        int i = 0;
+        for(; i + 8 <= len; i += 8) {
+            dst.putLong(off + i, getLong(src, srcOff + i));
+        }
+        for(; i < len; i ++) {
+            dst.put(off + i, src[srcOff + i]);
+        }
+    }
+
+    public static void putBytes(ByteBuffer dst, int off, byte[] src) {
+        putBytes(dst, off, src, 0, src.length);
+    }
+
+    /**
+     * 从src的off处读取len字节到dst[dstOff, dstOff+len)，不改变src的position
+     */
+    public static void getBytes(ByteBuffer src, int off, byte[] dst, int dstOff, int len) {
+        if(src.hasArray()) {
+            System.arraycopy(src.array(), src.arrayOffset() + off, dst, dstOff, len);
+            return;
+        }
+        int i = 0;
+        for(; i + 8 <= len; i += 8) {
+            putLong(dst, dstOff + i, src.getLong(off + i));
+        }
+        for(; i < len; i ++) {
+            dst[dstOff + i] = src.get(off + i);
+        }
+    }
+}
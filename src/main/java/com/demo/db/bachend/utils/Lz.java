@@ -0,0 +1,147 @@
+package com.demo.db.bachend.utils;
+
+import java.util.Arrays;
+
+/**
+ * LZ77族的快速压缩算法，格式与LZ4的块格式相同
+ *
+ * 压缩数据由若干序列组成，每个序列为：
+ * [Token] [LiteralLength...] [Literals] [Offset] [MatchLength...]
+ * Token 1字节，高4位为字面量长度，低4位为匹配长度减MIN_MATCH，
+ *       为15时后面跟扩展长度字节，每字节累加，直到某字节不为255
+ * Offset 2字节小端，匹配串距当前位置的距离
+ * 最后一个序列只有字面量，没有Offset和匹配
+ *
+ * 只用一张哈希表查找4字节的重复串，不做更长的搜索，以速度为主。
+ */
+public class Lz {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5; // 末尾至少保留为字面量的字节数
+    private static final int HASH_LOG = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+
+    private static final ThreadLocal<int[]> TABLE = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+
+    // 压缩len字节所需的最大输出空间
+    public static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    /**
+     * 压缩src[off, off+len)到dst，返回压缩后的长度
+     * dst的长度至少为maxCompressedLength(len)
+     */
+    public static int compress(byte[] src, int off, int len, byte[] dst) {
+        int[] table = TABLE.get();
+        // 表中存放位置+1，0表示空
+        Arrays.fill(table, 0);
+        int end = off + len;
+        int matchLimit = end - LAST_LITERALS;
+        int sp = off;
+        int anchor = off;
+        int dp = 0;
+        while(sp + MIN_MATCH <= matchLimit) {
+            int seq = Codec.getInt(src, sp);
+            int h = hash(seq);
+            int cand = table[h] - 1 + off;
+            table[h] = sp - off + 1;
+            if(cand < off || sp - cand > MAX_OFFSET || Codec.getInt(src, cand) != seq) {
+                sp ++;
+                continue;
+            }
+            int mlen = MIN_MATCH;
+            while(sp + mlen < matchLimit && src[cand + mlen] == src[sp + mlen]) {
+                mlen ++;
+            }
+            dp = writeSequence(src, anchor, sp - anchor, sp - cand, mlen, dst, dp);
+            sp += mlen;
+            anchor = sp;
+        }
+        return writeLastLiterals(src, anchor, end - anchor, dst, dp);
+    }
+
+    /**
+     * 解压src[off, off+len)到dst[dstOff, dstOff+dstLen)，返回解压后的长度，数据损坏时返回-1
+     */
+    public static int decompress(byte[] src, int off, int len, byte[] dst, int dstOff, int dstLen) {
+        int sp = off;
+        int end = off + len;
+        int dp = dstOff;
+        int dend = dstOff + dstLen;
+        while(sp < end) {
+            int token = src[sp ++] & 0xFF;
+            int lit = token >>> 4;
+            if(lit == 15) {
+                int b;
+                do {
+                    if(sp >= end) return -1;
+                    b = src[sp ++] & 0xFF;
+                    lit += b;
+                } while(b == 255);
+            }
+            if(sp + lit > end || dp + lit > dend) return -1;
+            System.arraycopy(src, sp, dst, dp, lit);
+            sp += lit;
+            dp += lit;
+            if(sp == end) break;
+            if(sp + 2 > end) return -1;
+            int offset = (src[sp] & 0xFF) | (src[sp + 1] & 0xFF) << 8;
+            sp += 2;
+            int mlen = token & 0x0F;
+            if(mlen == 15) {
+                int b;
+                do {
+                    if(sp >= end) return -1;
+                    b = src[sp ++] & 0xFF;
+                    mlen += b;
+                } while(b == 255);
+            }
+            mlen += MIN_MATCH;
+            int ref = dp - offset;
+            if(offset == 0 || ref < dstOff || dp + mlen > dend) return -1;
+            // 匹配串可能与输出重叠，逐字节复制
+            for(int i = 0; i < mlen; i ++) {
+                dst[dp + i] = dst[ref + i];
+            }
+            dp += mlen;
+        }
+        return dp - dstOff;
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int writeSequence(byte[] src, int litOff, int litLen, int offset, int mlen, byte[] dst, int dp) {
+        int ml = mlen - MIN_MATCH;
+        int tokenPos = dp ++;
+        int token = (Math.min(litLen, 15) << 4) | Math.min(ml, 15);
+        dp = writeLength(litLen, dst, dp);
+        System.arraycopy(src, litOff, dst, dp, litLen);
+        dp += litLen;
+        dst[dp ++] = (byte) offset;
+        dst[dp ++] = (byte) (offset >>> 8);
+        dp = writeLength(ml, dst, dp);
+        dst[tokenPos] = (byte) token;
+        return dp;
+    }
+
+    private static int writeLastLiterals(byte[] src, int litOff, int litLen, byte[] dst, int dp) {
+        dst[dp ++] = (byte) (Math.min(litLen, 15) << 4);
+        dp = writeLength(litLen, dst, dp);
+        System.arraycopy(src, litOff, dst, dp, litLen);
+        return dp + litLen;
+    }
+
+    // 长度不小于15时写入扩展长度字节
+    private static int writeLength(int len, byte[] dst, int dp) {
+        if(len < 15) return dp;
+        len -= 15;
+        while(len >= 255) {
+            dst[dp ++] = (byte) 255;
+            len -= 255;
+        }
+        dst[dp ++] = (byte) len;
+        return dp;
+    }
+}
@@ -1,29 +1,34 @@
 package com.demo.db.bachend.utils;
 
-import java.nio.ByteBuffer;
-
+/**
+ * 基本类型与字节数组的互相转换，返回新数组的方法只适合冷路径，
+ * 热路径应使用Codec在已有数组中原地读写
+ */
 public class Parser {
     public static byte[] short2Byte(short value) {
-        return ByteBuffer.allocate(Short.SIZE / Byte.SIZE).putShort(value).array();
+        byte[] buf = new byte[Short.SIZE / Byte.SIZE];
+        Codec.putShort(buf, 0, value);
+        return buf;
     }
     public static short parseShort(byte[] buf) {
-        ByteBuffer buffer = ByteBuffer.wrap(buf, 0, 2);
-        return buffer.getShort();
+        return Codec.getShort(buf, 0);
     }
     public static int parseInt(byte[] buf) {
-        ByteBuffer buffer = ByteBuffer.wrap(buf, 0, 4);
-        return buffer.getInt();
+        return Codec.getInt(buf, 0);
     }
     public static byte[] int2Byte(int value) {
-        return ByteBuffer.allocate(Integer.SIZE / Byte.SIZE).putInt(value).array();
+        byte[] buf = new byte[Integer.SIZE / Byte.SIZE];
+        Codec.putInt(buf, 0, value);
+        return buf;
     }
 
     public static long parseLong(byte[] buf) {
-        ByteBuffer buffer = ByteBuffer.wrap(buf, 0, 8);
-        return buffer.getLong();
+        return Codec.getLong(buf, 0);
     }
 
     public static byte[] long2Byte(long value) {
-        return ByteBuffer.allocate(Long.SIZE / Byte.SIZE).putLong(value).array();
+        byte[] buf = new byte[Long.SIZE / Byte.SIZE];
+        Codec.putLong(buf, 0, value);
+        return buf;
     }
 }
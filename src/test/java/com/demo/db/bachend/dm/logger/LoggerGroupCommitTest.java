@@ -0,0 +1,113 @@
+package com.demo.db.bachend.dm.logger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 多个线程并发写日志，组提交把它们合并成批次写入。
+ * 重新打开后每条日志恰好出现一次，同一线程的日志保持写入顺序，LSN互不相同；
+ * 文件末尾的半条日志在打开时被截掉，之后可以继续追加。
+ */
+public class LoggerGroupCommitTest {
+    private static final int THREADS = 8;
+    private static final int LOGS_PER_THREAD = 500;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        run(LoggerConfig.defaults().groupCommit(16, 200, TimeUnit.MICROSECONDS));
+    }
+
+    @Test
+    public void testGroupCommitWithoutWait() throws Exception {
+        run(LoggerConfig.defaults().groupCommit(16, 0, TimeUnit.MICROSECONDS));
+    }
+
+    @Test
+    public void testV2Format() throws Exception {
+        run(LoggerConfig.defaults().groupCommit(16, 200, TimeUnit.MICROSECONDS).format(LoggerConfig.FORMAT_V2));
+    }
+
+    private void run(LoggerConfig config) throws Exception {
+        String path = tmp.getRoot().getPath() + "/log";
+        Logger lg = Logger.create(path, config);
+
+        Set<Long> lsns = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> futures = new ArrayList<>();
+        for(int t = 0; t < THREADS; t ++) {
+            int owner = t;
+            futures.add(pool.submit(() -> {
+                long last = 0;
+                for(int i = 0; i < LOGS_PER_THREAD; i ++) {
+                    long lsn = lg.log(record(owner, i));
+                    assertTrue("lsn must grow within a thread", lsn > last);
+                    assertTrue("duplicated lsn " + lsn, lsns.add(lsn));
+                    last = lsn;
+                }
+                return null;
+            }));
+        }
+        for(Future<Void> f : futures) {
+            f.get();
+        }
+        pool.shutdown();
+        lg.close();
+
+        // 模拟崩溃时写了一半的日志
+        try(RandomAccessFile f = new RandomAccessFile(path + LoggerImpl.LOG_SUFFIX, "rw")) {
+            f.seek(f.length());
+            f.write(new byte[]{0, 0, 0, 100, 1, 2, 3});
+        }
+
+        Logger reopened = Logger.open(path, config);
+        verify(reopened, THREADS * LOGS_PER_THREAD);
+        reopened.log(record(THREADS, 0));
+        reopened.close();
+
+        Logger again = Logger.open(path, config);
+        verify(again, THREADS * LOGS_PER_THREAD + 1);
+        again.close();
+    }
+
+    private static byte[] record(int thread, int seq) {
+        return (thread + ":" + seq).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void verify(Logger lg, int expected) {
+        lg.rewind();
+        int[] next = new int[THREADS + 1];
+        Set<String> seen = new HashSet<>();
+        byte[] log;
+        while((log = lg.next()) != null) {
+            String s = new String(log, StandardCharsets.UTF_8);
+            assertTrue("duplicated log " + s, seen.add(s));
+            int sep = s.indexOf(':');
+            int thread = Integer.parseInt(s.substring(0, sep));
+            int seq = Integer.parseInt(s.substring(sep + 1));
+            assertEquals("order of thread " + thread, next[thread], seq);
+            next[thread] ++;
+        }
+        assertEquals(expected, seen.size());
+        assertNull(lg.next());
+    }
+}
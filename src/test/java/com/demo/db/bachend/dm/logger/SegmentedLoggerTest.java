@@ -0,0 +1,105 @@
+package com.demo.db.bachend.dm.logger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 段写满后切换到新段，重新打开后按顺序读出所有段中的日志；
+ * 检查点之前的段被删除，rewind()和重新打开后都从检查点开始读取。
+ */
+public class SegmentedLoggerTest {
+    private static final long SEGMENT_SIZE = 4096;
+    private static final int LOGS = 2000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testRolloverAndReopen() throws Exception {
+        String path = tmp.getRoot().getPath() + "/log";
+        LoggerConfig config = LoggerConfig.defaults().segmented(SEGMENT_SIZE);
+        Logger lg = Logger.create(path, config);
+        assertTrue(lg instanceof SegmentedLogger);
+        long last = 0;
+        for(int i = 0; i < LOGS; i ++) {
+            long lsn = lg.log(record(i));
+            assertTrue("lsn must grow across segments", lsn > last);
+            last = lsn;
+        }
+        lg.close();
+        assertTrue("log should span several segments", segmentFiles() > 2);
+
+        Logger reopened = Logger.open(path, config);
+        verify(reopened, 0);
+        reopened.close();
+    }
+
+    @Test
+    public void testCheckpointDeletesOldSegments() throws Exception {
+        String path = tmp.getRoot().getPath() + "/log";
+        LoggerConfig config = LoggerConfig.defaults().segmented(SEGMENT_SIZE);
+        SegmentedLogger lg = (SegmentedLogger) Logger.create(path, config);
+        for(int i = 0; i < LOGS / 2; i ++) {
+            lg.log(record(i));
+        }
+        long mark = lg.mark();
+        for(int i = LOGS / 2; i < LOGS; i ++) {
+            lg.log(record(i));
+        }
+        int before = segmentFiles();
+        lg.checkpoint(mark);
+        assertTrue("segments before the checkpoint should be deleted", segmentFiles() < before);
+        verify(lg, LOGS / 2);
+        lg.close();
+
+        Logger reopened = Logger.open(path, config);
+        verify(reopened, LOGS / 2);
+        // 重新打开后继续追加
+        reopened.log(record(LOGS));
+        reopened.close();
+
+        Logger again = Logger.open(path, config);
+        again.rewind();
+        int count = 0;
+        byte[] log;
+        while((log = again.next()) != null) {
+            assertEquals(LOGS / 2 + count, seq(log));
+            count ++;
+        }
+        assertEquals(LOGS / 2 + 1, count);
+        again.close();
+    }
+
+    private int segmentFiles() {
+        File[] files = tmp.getRoot().listFiles((dir, name) -> name.endsWith(LoggerImpl.LOG_SUFFIX));
+        return files == null ? 0 : files.length;
+    }
+
+    private static byte[] record(int seq) {
+        return ("record-" + seq).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int seq(byte[] log) {
+        String s = new String(log, StandardCharsets.UTF_8);
+        return Integer.parseInt(s.substring("record-".length()));
+    }
+
+    // 从检查点开始应当依次读出第from到最后一条日志
+    private static void verify(Logger lg, int from) {
+        lg.rewind();
+        for(int i = from; i < LOGS; i ++) {
+            byte[] log = lg.next();
+            assertTrue("missing log " + i, log != null);
+            assertEquals(i, seq(log));
+        }
+        assertNull(lg.next());
+    }
+}
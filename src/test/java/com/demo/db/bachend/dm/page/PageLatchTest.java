@@ -0,0 +1,113 @@
+package com.demo.db.bachend.dm.page;
+
+import com.demo.db.bachend.dm.pageCache.PageCache;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 页latch的乐观读：有写者持有过独占latch后validate失败；
+ * 写者不断更新、搬动记录时，PageSlotted.read总是读到某个完整的版本。
+ *
+ * 槽0中版本v的记录长度为100 + v % 64，每个字节都等于(byte) v
+ */
+public class PageLatchTest {
+    private static final int READERS = 4;
+    private static final int VERSIONS = 20000;
+
+    private static Page heapPage(byte[] raw) {
+        return new PageImpl(1, raw, null);
+    }
+
+    private static Page framePage(byte[] raw) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(PageCache.PAGE_SIZE);
+        frame.put(raw);
+        frame.clear();
+        return new FramePage(1, frame, null);
+    }
+
+    @Test
+    public void testValidate() {
+        for(Page pg : new Page[]{heapPage(PageSlotted.initRaw()), framePage(PageSlotted.initRaw())}) {
+            long stamp = pg.tryOptimisticRead();
+            assertTrue(stamp != 0);
+            assertTrue(pg.validate(stamp));
+            // 共享latch不使乐观读失败
+            pg.lockShared();
+            pg.unLockShared();
+            assertTrue(pg.validate(stamp));
+
+            pg.lock();
+            assertEquals(0, pg.tryOptimisticRead());
+            assertFalse(pg.validate(stamp));
+            pg.unLock();
+            assertFalse(pg.validate(stamp));
+            assertTrue(pg.validate(pg.tryOptimisticRead()));
+        }
+    }
+
+    @Test
+    public void testHeapPageReadWhileWriting() throws Exception {
+        readWhileWriting(heapPage(PageSlotted.initRaw()));
+    }
+
+    @Test
+    public void testFramePageReadWhileWriting() throws Exception {
+        readWhileWriting(framePage(PageSlotted.initRaw()));
+    }
+
+    private static byte[] record(int version) {
+        byte[] raw = new byte[100 + version % 64];
+        Arrays.fill(raw, (byte) version);
+        return raw;
+    }
+
+    private static void readWhileWriting(Page pg) throws Exception {
+        assertEquals(0, PageSlotted.insert(pg, record(0)));
+        assertEquals(1, PageSlotted.insert(pg, new byte[10]));
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(READERS);
+        List<Future<Void>> futures = new ArrayList<>();
+        for(int t = 0; t < READERS; t ++) {
+            futures.add(pool.submit(() -> {
+                while(!stop.get()) {
+                    byte[] raw = PageSlotted.read(pg, (short) 0);
+                    assertNotNull(raw);
+                    int version = raw[0] & 0xFF;
+                    assertEquals("length of version " + version, 100 + version % 64, raw.length);
+                    for(byte b : raw) {
+                        if(b != raw[0]) {
+                            assertEquals("torn record of version " + version, raw[0], b);
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        try {
+            for(int v = 1; v <= VERSIONS; v ++) {
+                assertTrue(PageSlotted.update(pg, (short) 0, record(v)));
+                // 槽1的长度不断变化，留下碎片，页整理时槽0的记录被搬动
+                assertTrue(PageSlotted.update(pg, (short) 1, new byte[10 + (v * 37) % 2000]));
+            }
+        } finally {
+            stop.set(true);
+            pool.shutdown();
+        }
+        for(Future<Void> f : futures) {
+            f.get();
+        }
+    }
+}
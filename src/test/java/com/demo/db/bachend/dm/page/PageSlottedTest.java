@@ -0,0 +1,168 @@
+package com.demo.db.bachend.dm.page;
+
+import com.demo.db.bachend.dm.pageCache.PageCache;
+import com.demo.db.bachend.err.Error;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 槽页的插入、更新、删除和整理，越界的槽号和放不下的记录，以及恢复例程的重复重做
+ */
+public class PageSlottedTest {
+
+    private static Page newPage() {
+        return new PageImpl(1, PageSlotted.initRaw(), null);
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] raw = new byte[length];
+        new Random(seed).nextBytes(raw);
+        return raw;
+    }
+
+    private static byte[] snapshot(Page pg) {
+        byte[] copy = new byte[PageCache.PAGE_SIZE];
+        pg.getPageBuffer().duplicate().get(copy);
+        return copy;
+    }
+
+    private static void expect(Exception err, Runnable r) {
+        try {
+            r.run();
+            fail("expected " + err.getMessage());
+        } catch (RuntimeException e) {
+            assertSame(err, e);
+        }
+    }
+
+    @Test
+    public void testInsertUpdateDelete() {
+        Page pg = newPage();
+        short a = PageSlotted.insert(pg, bytes(100, 1));
+        short b = PageSlotted.insert(pg, bytes(200, 2));
+        short c = PageSlotted.insert(pg, bytes(300, 3));
+        assertEquals(3, PageSlotted.getSlotCount(pg));
+
+        // 变短原地覆盖，变长重新分配，槽号不变
+        assertTrue(PageSlotted.update(pg, a, bytes(50, 4)));
+        assertTrue(PageSlotted.update(pg, b, bytes(1000, 5)));
+        assertArrayEquals(bytes(50, 4), PageSlotted.read(pg, a));
+        assertArrayEquals(bytes(1000, 5), PageSlotted.read(pg, b));
+        assertArrayEquals(bytes(300, 3), PageSlotted.read(pg, c));
+
+        PageSlotted.delete(pg, b);
+        assertNull(PageSlotted.read(pg, b));
+        // 空槽被重新使用
+        assertEquals(b, PageSlotted.insert(pg, bytes(10, 6)));
+
+        int free = PageSlotted.getFreeSpace(pg);
+        PageSlotted.compact(pg);
+        assertEquals(free, PageSlotted.getFreeSpace(pg));
+        assertArrayEquals(bytes(50, 4), PageSlotted.read(pg, a));
+        assertArrayEquals(bytes(10, 6), PageSlotted.read(pg, b));
+        assertArrayEquals(bytes(300, 3), PageSlotted.read(pg, c));
+    }
+
+    @Test
+    public void testDeleteReclaimsTrailingSlots() {
+        Page pg = newPage();
+        short a = PageSlotted.insert(pg, bytes(10, 1));
+        short b = PageSlotted.insert(pg, bytes(10, 2));
+        PageSlotted.delete(pg, b);
+        assertEquals(1, PageSlotted.getSlotCount(pg));
+        PageSlotted.delete(pg, a);
+        assertEquals(0, PageSlotted.getSlotCount(pg));
+        assertEquals(PageSlotted.MAX_FREE_SPACE + 4, PageSlotted.getFreeSpace(pg));
+    }
+
+    @Test
+    public void testOutOfRangeSlot() {
+        Page pg = newPage();
+        PageSlotted.insert(pg, bytes(10, 1));
+        byte[] before = snapshot(pg);
+        expect(Error.InvalidSlotException, () -> PageSlotted.update(pg, (short) 1, bytes(10, 2)));
+        expect(Error.InvalidSlotException, () -> PageSlotted.update(pg, (short) -1, bytes(10, 2)));
+        expect(Error.InvalidSlotException, () -> PageSlotted.delete(pg, (short) 5));
+        expect(Error.InvalidSlotException, () -> PageSlotted.delete(pg, (short) -1));
+        expect(Error.InvalidSlotException, () -> PageSlotted.recoverInsert(pg, bytes(10, 2), (short) -1));
+        expect(Error.InvalidSlotException, () -> PageSlotted.recoverDelete(pg, (short) -1));
+        assertNull(PageSlotted.read(pg, (short) 7));
+        assertArrayEquals(before, snapshot(pg));
+    }
+
+    @Test
+    public void testPageFull() {
+        Page pg = newPage();
+        int n = 0;
+        while(PageSlotted.insert(pg, bytes(500, n)) >= 0) {
+            n ++;
+        }
+        assertTrue(n > 0);
+        byte[] before = snapshot(pg);
+        assertEquals(-1, PageSlotted.insert(pg, bytes(500, n)));
+        assertFalse(PageSlotted.canInsert(pg, 500));
+        assertFalse(PageSlotted.update(pg, (short) 0, bytes(500 + PageSlotted.getFreeSpace(pg) + 1, 0)));
+        assertArrayEquals(before, snapshot(pg));
+        for(int i = 0; i < n; i ++) {
+            assertArrayEquals(bytes(500, i), PageSlotted.read(pg, (short) i));
+        }
+
+        // 恢复时放不下的记录不修改页
+        short beyond = (short) (n + 3);
+        expect(Error.DataTooLargeException, () -> PageSlotted.recoverInsert(pg, bytes(500, 0), beyond));
+        assertArrayEquals(before, snapshot(pg));
+
+        // 删除后的碎片可以被整理出来重新使用
+        PageSlotted.delete(pg, (short) 0);
+        assertTrue(PageSlotted.insert(pg, bytes(500, 99)) >= 0);
+    }
+
+    @Test
+    public void testRecoverInsertIsIdempotent() {
+        Page pg = newPage();
+        PageSlotted.recoverInsert(pg, bytes(100, 1), (short) 3);
+        assertEquals(4, PageSlotted.getSlotCount(pg));
+        byte[] once = snapshot(pg);
+        PageSlotted.recoverInsert(pg, bytes(100, 1), (short) 3);
+        assertArrayEquals(once, snapshot(pg));
+        assertArrayEquals(bytes(100, 1), PageSlotted.read(pg, (short) 3));
+        assertNull(PageSlotted.read(pg, (short) 0));
+
+        // 重做更新和删除同样可以重复
+        PageSlotted.recoverUpdate(pg, bytes(300, 2), (short) 3);
+        byte[] updated = snapshot(pg);
+        PageSlotted.recoverUpdate(pg, bytes(300, 2), (short) 3);
+        assertArrayEquals(updated, snapshot(pg));
+        assertArrayEquals(bytes(300, 2), PageSlotted.read(pg, (short) 3));
+
+        PageSlotted.recoverDelete(pg, (short) 3);
+        byte[] deleted = snapshot(pg);
+        PageSlotted.recoverDelete(pg, (short) 3);
+        assertArrayEquals(deleted, snapshot(pg));
+        assertEquals(0, PageSlotted.getSlotCount(pg));
+    }
+
+    @Test
+    public void testRecoverInsertMatchesInsert() {
+        Page inserted = newPage();
+        Page recovered = newPage();
+        for(int i = 0; i < 20; i ++) {
+            byte[] raw = bytes(37 * (i + 1), i);
+            short slot = PageSlotted.insert(inserted, raw);
+            PageSlotted.recoverInsert(recovered, raw, slot);
+        }
+        for(short i = 0; i < 20; i ++) {
+            assertArrayEquals(PageSlotted.read(inserted, i), PageSlotted.read(recovered, i));
+        }
+        assertEquals(PageSlotted.getFreeSpace(inserted), PageSlotted.getFreeSpace(recovered));
+    }
+}
@@ -0,0 +1,226 @@
+package com.demo.db.bachend.dm.pageCache;
+
+import com.demo.db.bachend.dm.page.Page;
+import com.demo.db.bachend.err.Error;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * 带校验和的页存储：重新打开后校验通过，损坏页或校验和项后读入报告BadPageChecksumException，
+ * PageScrubber找出损坏的页，关闭校验后重写恢复；写入的同时修改源缓冲区也不会误报
+ */
+public class ChecksumPageStoreTest {
+    private static final int PAGES = 32;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // 偶数页可压缩，奇数页是随机数据
+    private static byte[] page(long pgNum, int version) {
+        byte[] raw = new byte[PageCache.PAGE_SIZE];
+        if(pgNum % 2 == 0) {
+            Arrays.fill(raw, (byte) (pgNum + version));
+            raw[0] = (byte) version;
+        } else {
+            new Random(pgNum * 1000 + version).nextBytes(raw);
+        }
+        return raw;
+    }
+
+    private static byte[] read(PageStore store, long pgNum) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(PageCache.PAGE_SIZE);
+        store.read(pgNum, buf);
+        return buf.array();
+    }
+
+    private static void expectBad(PageStore store, long pgNum, int n) throws Exception {
+        try {
+            store.read(pgNum, ByteBuffer.allocate(n * PageCache.PAGE_SIZE));
+            fail("pages " + pgNum + "+" + n + " should fail verification");
+        } catch (RuntimeException e) {
+            assertSame(Error.BadPageChecksumException, e);
+        }
+    }
+
+    private static void flipByte(String file, long pos) throws Exception {
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 0x5A);
+        }
+    }
+
+    private String createStore() throws Exception {
+        String path = tmp.getRoot().getPath() + "/checksum";
+        PageStore store = ChecksumPageStore.create(path, FilePageStore.create(path));
+        // 前一半逐页写入，后一半聚集写入
+        for(long i = 1; i <= PAGES / 2; i ++) {
+            store.write(i, ByteBuffer.wrap(page(i, 1)));
+        }
+        ByteBuffer[] srcs = new ByteBuffer[PAGES / 2];
+        for(int i = 0; i < srcs.length; i ++) {
+            srcs[i] = ByteBuffer.wrap(page(PAGES / 2 + 1 + i, 1));
+        }
+        store.write(PAGES / 2 + 1, srcs);
+        store.close();
+        return path;
+    }
+
+    @Test
+    public void testCorruptionAndRecovery() throws Exception {
+        String path = createStore();
+        PageStore store = PageStore.open(path);
+        assertEquals(PAGES, store.pageCount());
+        for(long i = 1; i <= PAGES; i ++) {
+            assertArrayEquals("page " + i, page(i, 1), read(store, i));
+        }
+        store.close();
+
+        // 损坏第5页的一个字节和第10页的校验和项
+        flipByte(path + PageCacheImpl.DB_SUFFIX, 4L * PageCache.PAGE_SIZE + 1234);
+        flipByte(path + ChecksumPageStore.CRC_SUFFIX, 9L * 4 + 2);
+        assertEquals(Arrays.asList(5L, 10L), PageScrubber.scrub(path, 3));
+
+        store = PageStore.open(path);
+        expectBad(store, 5, 1);
+        expectBad(store, 10, 1);
+        expectBad(store, 1, PAGES);
+        assertArrayEquals(page(4, 1), read(store, 4));
+        assertArrayEquals(page(11, 1), read(store, 11));
+
+        // 关闭校验后可以读出，重写后重新记录校验和
+        store.setVerify(false);
+        read(store, 5);
+        read(store, 10);
+        store.write(5, ByteBuffer.wrap(page(5, 2)));
+        store.write(10, ByteBuffer.wrap(page(10, 2)));
+        store.sync();
+        store.setVerify(true);
+        assertArrayEquals(page(5, 2), read(store, 5));
+        assertArrayEquals(page(10, 2), read(store, 10));
+        store.close();
+        assertEquals(Collections.emptyList(), PageScrubber.scrub(path, 3));
+    }
+
+    @Test
+    public void testThroughPageCache() throws Exception {
+        String path = tmp.getRoot().getPath() + "/checksum";
+        long memory = 16L * PageCache.PAGE_SIZE;
+        PageCache pc = PageCache.create(path, memory, PageCacheConfig.defaults().checksum(true).extent(0));
+        for(long i = 1; i <= PAGES; i ++) {
+            assertEquals(i, pc.newPage(page(i, 1)));
+        }
+        pc.close();
+        flipByte(path + PageCacheImpl.DB_SUFFIX, 6L * PageCache.PAGE_SIZE + 100);
+
+        pc = PageCache.open(path, memory);
+        try {
+            pc.getPage(7).release();
+            fail("page 7 should fail verification");
+        } catch (RuntimeException e) {
+            // 缓存把读入页时的异常包装后抛出
+            assertSame(Error.BadPageChecksumException, e.getCause());
+        }
+        pc.close();
+
+        // 恢复：关闭校验打开，重写损坏的页并checkpoint后重新开启校验
+        pc = PageCache.open(path, memory, PageCacheConfig.defaults().verify(false));
+        Page pg = pc.getPage(7);
+        pg.lock();
+        pg.getPageBuffer().duplicate().put(page(7, 2));
+        pg.setDirty(true);
+        pg.unLock();
+        pg.release();
+        pc.checkpoint();
+        pc.setVerify(true);
+        pc.close();
+        assertEquals(Collections.emptyList(), PageScrubber.scrub(path, 2));
+
+        pc = PageCache.open(path, memory);
+        for(long i = 1; i <= PAGES; i ++) {
+            pg = pc.getPage(i);
+            byte[] content = new byte[PageCache.PAGE_SIZE];
+            pg.getPageBuffer().duplicate().get(content);
+            assertArrayEquals("page " + i, page(i, i == 7 ? 2 : 1), content);
+            pg.release();
+        }
+        pc.close();
+    }
+
+    /**
+     * 两个写者反复写同一页，写入的同时另一个线程不断修改写者的源缓冲区，读者一直读该页。
+     * 校验和必须与实际写下去的内容一致，读者和最后的读入都不能校验失败
+     */
+    @Test
+    public void testWriteWhileSourceChanges() throws Exception {
+        String path = tmp.getRoot().getPath() + "/checksum";
+        PageStore store = ChecksumPageStore.create(path, FilePageStore.create(path));
+        store.write(1, ByteBuffer.wrap(page(1, 0)));
+        store.write(2, ByteBuffer.wrap(page(2, 0)));
+
+        AtomicBoolean stop = new AtomicBoolean();
+        ByteBuffer shared = ByteBuffer.allocate(PageCache.PAGE_SIZE);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<Void>> futures = new ArrayList<>();
+        futures.add(pool.submit(() -> {
+            Random random = new Random(1);
+            byte[] noise = new byte[PageCache.PAGE_SIZE];
+            while(!stop.get()) {
+                random.nextBytes(noise);
+                shared.duplicate().put(noise);
+            }
+            return null;
+        }));
+        futures.add(pool.submit(() -> {
+            for(int i = 0; i < 4000; i ++) {
+                store.write(1, shared.duplicate());
+            }
+            return null;
+        }));
+        futures.add(pool.submit(() -> {
+            for(int i = 0; i < 2000; i ++) {
+                store.write(1, new ByteBuffer[]{ shared.duplicate(), ByteBuffer.wrap(page(2, i)) });
+            }
+            return null;
+        }));
+        futures.add(pool.submit(() -> {
+            while(!stop.get()) {
+                store.read(1, ByteBuffer.allocate(2 * PageCache.PAGE_SIZE));
+            }
+            return null;
+        }));
+        try {
+            futures.get(1).get();
+            futures.get(2).get();
+        } finally {
+            stop.set(true);
+            pool.shutdown();
+        }
+        for(Future<Void> f : futures) {
+            f.get();
+        }
+        read(store, 1);
+        assertArrayEquals(page(2, 1999), read(store, 2));
+        store.close();
+        assertEquals(Collections.emptyList(), PageScrubber.scrub(path, 1));
+    }
+}
@@ -0,0 +1,180 @@
+package com.demo.db.bachend.dm.pageCache;
+
+import com.demo.db.bachend.dm.page.Page;
+import com.demo.db.bachend.err.Error;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * 压缩页存储：可压缩和不可压缩的页往返，重新打开后从映射文件恢复，
+ * sync()之前崩溃时保留上一次sync()的内容，损坏的区段报告为CorruptedPageException
+ */
+public class CompressedPageStoreTest {
+    private static final int PAGES = 64;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // 偶数页可压缩，奇数页是随机数据
+    private static byte[] page(long pgNum, int version) {
+        byte[] raw = new byte[PageCache.PAGE_SIZE];
+        if(pgNum % 2 == 0) {
+            Arrays.fill(raw, (byte) (pgNum + version));
+            raw[0] = (byte) version;
+        } else {
+            new Random(pgNum * 1000 + version).nextBytes(raw);
+        }
+        return raw;
+    }
+
+    private static byte[] read(PageStore store, long pgNum) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(PageCache.PAGE_SIZE);
+        store.read(pgNum, buf);
+        return buf.array();
+    }
+
+    private static void writeAll(PageStore store, int version) throws Exception {
+        for(long i = 1; i <= PAGES; i ++) {
+            store.write(i, ByteBuffer.wrap(page(i, version)));
+        }
+    }
+
+    private static void verifyAll(PageStore store, int version) throws Exception {
+        assertEquals(PAGES, store.pageCount());
+        for(long i = 1; i <= PAGES; i ++) {
+            assertArrayEquals("page " + i, page(i, version), read(store, i));
+        }
+    }
+
+    @Test
+    public void testRoundTripAndReopen() throws Exception {
+        String path = tmp.getRoot().getPath() + "/compressed";
+        CompressedPageStore store = CompressedPageStore.create(path);
+        writeAll(store, 1);
+        verifyAll(store, 1);
+        // 覆盖写入，被替换的区段在sync后重用
+        writeAll(store, 2);
+        store.sync();
+        writeAll(store, 3);
+        verifyAll(store, 3);
+        store.close();
+
+        CompressedPageStore reopened = CompressedPageStore.open(path);
+        verifyAll(reopened, 3);
+        // 从未写过的页读出全0
+        ByteBuffer buf = ByteBuffer.allocate(2 * PageCache.PAGE_SIZE);
+        reopened.read(PAGES + 1, buf);
+        assertArrayEquals(new byte[2 * PageCache.PAGE_SIZE], buf.array());
+        reopened.truncate(PAGES / 2);
+        reopened.close();
+
+        CompressedPageStore truncated = CompressedPageStore.open(path);
+        assertEquals(PAGES / 2, truncated.pageCount());
+        for(long i = 1; i <= PAGES / 2; i ++) {
+            assertArrayEquals(page(i, 3), read(truncated, i));
+        }
+        truncated.close();
+    }
+
+    @Test
+    public void testCrashBeforeSyncKeepsSyncedPages() throws Exception {
+        String path = tmp.getRoot().getPath() + "/compressed";
+        CompressedPageStore store = CompressedPageStore.create(path);
+        writeAll(store, 1);
+        store.sync();
+        // 之后的写入没有sync，区段也不会被重用，模拟此时崩溃
+        writeAll(store, 2);
+        writeAll(store, 3);
+
+        CompressedPageStore afterCrash = CompressedPageStore.open(path);
+        verifyAll(afterCrash, 1);
+        afterCrash.close();
+        store.close();
+    }
+
+    @Test
+    public void testCorruptedExtent() throws Exception {
+        String path = tmp.getRoot().getPath() + "/compressed";
+        CompressedPageStore store = CompressedPageStore.create(path);
+        writeAll(store, 1);
+        store.close();
+
+        // 第2页可压缩，把它的区段改成无法解压的数据
+        long offset;
+        int length;
+        try(RandomAccessFile map = new RandomAccessFile(path + CompressedPageStore.MAP_SUFFIX, "rw")) {
+            map.seek(12);
+            offset = map.readLong();
+            length = map.readInt();
+        }
+        try(RandomAccessFile data = new RandomAccessFile(path + PageCacheImpl.DB_SUFFIX, "rw")) {
+            data.seek(offset);
+            byte[] garbage = new byte[length];
+            Arrays.fill(garbage, (byte) 0xFF);
+            data.write(garbage);
+        }
+        // 第3页的映射项指向数据文件之外
+        try(RandomAccessFile map = new RandomAccessFile(path + CompressedPageStore.MAP_SUFFIX, "rw")) {
+            map.seek(24);
+            map.writeLong(1L << 40);
+        }
+
+        CompressedPageStore reopened = CompressedPageStore.open(path);
+        expectCorrupted(reopened, 2);
+        expectCorrupted(reopened, 3);
+        assertArrayEquals(page(1, 1), read(reopened, 1));
+        assertArrayEquals(page(4, 1), read(reopened, 4));
+        reopened.close();
+    }
+
+    private static void expectCorrupted(PageStore store, long pgNum) throws Exception {
+        try {
+            read(store, pgNum);
+            fail("page " + pgNum + " should be corrupted");
+        } catch (RuntimeException e) {
+            assertSame(Error.CorruptedPageException, e);
+        }
+    }
+
+    @Test
+    public void testThroughPageCache() throws Exception {
+        String path = tmp.getRoot().getPath() + "/compressed";
+        long memory = 16L * PageCache.PAGE_SIZE;
+        PageCacheConfig config = PageCacheConfig.defaults().compressed(true);
+        PageCache pc = PageCache.create(path, memory, config);
+        for(long i = 1; i <= PAGES; i ++) {
+            assertEquals(i, pc.newPage(page(i, 1)));
+        }
+        for(long i = 1; i <= PAGES; i += 3) {
+            Page pg = pc.getPage(i);
+            pg.lock();
+            pg.getPageBuffer().duplicate().put(page(i, 2));
+            pg.setDirty(true);
+            pg.unLock();
+            pg.release();
+        }
+        pc.close();
+
+        PageCache reopened = PageCache.open(path, memory);
+        assertEquals(PAGES, reopened.getPageNum());
+        for(long i = 1; i <= PAGES; i ++) {
+            Page pg = reopened.getPage(i);
+            byte[] content = new byte[PageCache.PAGE_SIZE];
+            pg.getPageBuffer().duplicate().get(content);
+            assertArrayEquals("page " + i, page(i, (i - 1) % 3 == 0 ? 2 : 1), content);
+            pg.release();
+        }
+        reopened.close();
+    }
+}
@@ -0,0 +1,107 @@
+package com.demo.db.bachend.dm.pageCache;
+
+import com.demo.db.bachend.dm.logger.Logger;
+import com.demo.db.bachend.dm.page.Page;
+import com.demo.db.bachend.utils.Codec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 另一个线程不断修改页的同时反复调用flushPageAsync，
+ * 每次写回后数据文件中的页都是一个完整的版本，且日志已落盘到该版本的页LSN。
+ *
+ * 页的格式：[Counter] 8字节 [Fill] 其余字节都等于fill(Counter)，页LSN等于Counter，新页的Counter为0
+ */
+public class PageCacheAsyncFlushTest {
+    private static final int FLUSHES = 300;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // 只记录落盘到的最大LSN
+    private static class FakeLogger implements Logger {
+        final AtomicLong flushed = new AtomicLong();
+        @Override public long log(byte[] data) { throw new UnsupportedOperationException(); }
+        @Override public void flush(long lsn) { flushed.accumulateAndGet(lsn, Math::max); }
+        @Override public void truncate(long x) { }
+        @Override public byte[] next() { return null; }
+        @Override public void rewind() { }
+        @Override public void close() { }
+    }
+
+    @Test
+    public void testFlushWhileModifying() throws Exception {
+        String path = tmp.getRoot().getPath() + "/async";
+        FakeLogger wal = new FakeLogger();
+        PageCache pc = PageCache.create(path, 16L * PageCache.PAGE_SIZE,
+                PageCacheConfig.defaults().wal(wal).extent(0));
+        byte[] init = new byte[PageCache.PAGE_SIZE];
+        stamp(ByteBuffer.wrap(init), 0);
+        long pgNum = pc.newPage(init);
+
+        Page pg = pc.getPage(pgNum);
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            long counter = 0;
+            while(!stop.get()) {
+                pg.lock();
+                try {
+                    counter ++;
+                    stamp(pg.getPageBuffer(), counter);
+                    pg.setPageLsn(counter);
+                    pg.setDirty(true);
+                } finally {
+                    pg.unLock();
+                }
+            }
+        });
+        writer.start();
+        try(RandomAccessFile file = new RandomAccessFile(path + PageCacheImpl.DB_SUFFIX, "r")) {
+            byte[] disk = new byte[PageCache.PAGE_SIZE];
+            for(int i = 0; i < FLUSHES; i ++) {
+                pc.flushPageAsync(pg).get();
+                file.seek(PageCacheImpl.pageOffSet(pgNum));
+                file.readFully(disk);
+                long counter = check(ByteBuffer.wrap(disk));
+                assertTrue("page version " + counter + " written before its log " + wal.flushed.get(),
+                        counter <= wal.flushed.get());
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        pg.release();
+        pc.close();
+    }
+
+    private static byte fill(long counter) {
+        return (byte) (counter * 31 + 7);
+    }
+
+    private static void stamp(ByteBuffer buf, long counter) {
+        Codec.putLong(buf, 0, counter);
+        for(int i = 8; i < PageCache.PAGE_SIZE; i ++) {
+            buf.put(i, fill(counter));
+        }
+    }
+
+    // 检查页是一个完整的版本，返回其Counter
+    private static long check(ByteBuffer buf) {
+        long counter = Codec.getLong(buf, 0);
+        for(int i = 8; i < PageCache.PAGE_SIZE; i ++) {
+            if(buf.get(i) != fill(counter)) {
+                assertEquals("byte " + i + " of version " + counter, fill(counter), buf.get(i));
+            }
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,133 @@
+package com.demo.db.bachend.dm.pageCache;
+
+import com.demo.db.bachend.dm.page.Page;
+import com.demo.db.bachend.utils.Codec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 多个线程各自对不同的页做读-改-写，缓存远小于文件，页会不断被驱逐、写回、重新读入。
+ * 关闭后重新打开文件，检查每一页的内容都是它自己最后一次写入的结果，没有被其他页覆盖。
+ *
+ * 页的格式：[PageNumber] 8字节 [Counter] 8字节 [Fill] 其余字节都等于fill(pgNum, counter)
+ */
+public class PageCacheConcurrencyTest {
+    private static final int PAGES = 256;
+    private static final int CACHE_PAGES = 24;
+    private static final int THREADS = 8;
+    private static final int OPS_PER_THREAD = 2000;
+
+    private static final int OF_PGNUM = 0;
+    private static final int OF_COUNTER = 8;
+    private static final int OF_FILL = 16;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testHeapPages() throws Exception {
+        run(PageCacheConfig.defaults());
+    }
+
+    @Test
+    public void testOffHeapPages() throws Exception {
+        run(PageCacheConfig.defaults().offHeap(true));
+    }
+
+    private void run(PageCacheConfig config) throws Exception {
+        String path = tmp.getRoot().getPath() + "/concurrency";
+        long memory = (long) CACHE_PAGES * PageCache.PAGE_SIZE;
+
+        PageCache pc = PageCache.create(path, memory, config);
+        for(long i = 1; i <= PAGES; i ++) {
+            byte[] init = new byte[PageCache.PAGE_SIZE];
+            stamp(ByteBuffer.wrap(init), i, 0);
+            assertEquals(i, pc.newPage(init));
+        }
+
+        AtomicLongArray expected = new AtomicLongArray(PAGES + 1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> futures = new ArrayList<>();
+        for(int t = 0; t < THREADS; t ++) {
+            int owner = t;
+            futures.add(pool.submit(() -> {
+                Random random = new Random(owner);
+                for(int i = 0; i < OPS_PER_THREAD; i ++) {
+                    // 线程t只修改页号模THREADS等于t的页
+                    long pgNum = random.nextInt(PAGES / THREADS) * THREADS + owner + 1;
+                    increment(pc, pgNum);
+                    expected.incrementAndGet((int) pgNum);
+                }
+                return null;
+            }));
+        }
+        for(Future<Void> f : futures) {
+            f.get();
+        }
+        pool.shutdown();
+        pc.close();
+
+        PageCache reopened = PageCache.open(path, memory, config);
+        assertEquals(PAGES, reopened.getPageNum());
+        for(long i = 1; i <= PAGES; i ++) {
+            Page pg = reopened.getPage(i);
+            try {
+                check(pg.getPageBuffer(), i, expected.get((int) i));
+            } finally {
+                pg.release();
+            }
+        }
+        reopened.close();
+    }
+
+    private static void increment(PageCache pc, long pgNum) throws Exception {
+        Page pg = pc.getPage(pgNum);
+        pg.lock();
+        try {
+            ByteBuffer buf = pg.getPageBuffer();
+            long counter = Codec.getLong(buf, OF_COUNTER);
+            check(buf, pgNum, counter);
+            stamp(buf, pgNum, counter + 1);
+            pg.setDirty(true);
+        } finally {
+            pg.unLock();
+            pg.release();
+        }
+    }
+
+    private static byte fill(long pgNum, long counter) {
+        return (byte) (pgNum * 31 + counter);
+    }
+
+    private static void stamp(ByteBuffer buf, long pgNum, long counter) {
+        Codec.putLong(buf, OF_PGNUM, pgNum);
+        Codec.putLong(buf, OF_COUNTER, counter);
+        byte b = fill(pgNum, counter);
+        for(int i = OF_FILL; i < PageCache.PAGE_SIZE; i ++) {
+            buf.put(i, b);
+        }
+    }
+
+    private static void check(ByteBuffer buf, long pgNum, long counter) {
+        assertEquals("page number of page " + pgNum, pgNum, Codec.getLong(buf, OF_PGNUM));
+        assertEquals("counter of page " + pgNum, counter, Codec.getLong(buf, OF_COUNTER));
+        byte b = fill(pgNum, counter);
+        for(int i = OF_FILL; i < PageCache.PAGE_SIZE; i ++) {
+            if(buf.get(i) != b) {
+                assertEquals("byte " + i + " of page " + pgNum, b, buf.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.demo.db.bachend.dm.pageCache;
+
+import com.demo.db.bachend.dm.page.Page;
+import com.demo.db.bachend.err.Error;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * 批量分配新页：非法的页数和全0的初始内容在分配页号之前失败，不留下空洞
+ */
+public class PageCacheNewPagesTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static void expect(Exception err, Runnable r) {
+        try {
+            r.run();
+            fail("expected " + err.getMessage());
+        } catch (RuntimeException e) {
+            assertSame(err, e);
+        }
+    }
+
+    @Test
+    public void testNewPages() throws Exception {
+        String path = tmp.getRoot().getPath() + "/newpages";
+        PageCache pc = PageCache.create(path, 16L * PageCache.PAGE_SIZE, PageCacheConfig.defaults());
+        byte[] init = new byte[PageCache.PAGE_SIZE];
+        Arrays.fill(init, (byte) 5);
+
+        expect(Error.InvalidPageCountException, () -> pc.newPages(0, init));
+        expect(Error.InvalidPageCountException, () -> pc.newPages(-3, init));
+        expect(Error.ZeroPageDataException, () -> pc.newPages(2, new byte[PageCache.PAGE_SIZE]));
+        assertEquals(0, pc.getPageNum());
+
+        assertEquals(1, pc.newPages(3, init));
+        assertEquals(4, pc.newPage(init));
+        expect(Error.InvalidPageCountException, () -> pc.newPages(0, init));
+        assertEquals(4, pc.getPageNum());
+        pc.close();
+
+        PageCache reopened = PageCache.open(path, 16L * PageCache.PAGE_SIZE);
+        assertEquals(4, reopened.getPageNum());
+        for(long i = 1; i <= 4; i ++) {
+            Page pg = reopened.getPage(i);
+            byte[] content = new byte[PageCache.PAGE_SIZE];
+            pg.getPageBuffer().duplicate().get(content);
+            assertArrayEquals(init, content);
+            pg.release();
+        }
+        reopened.close();
+    }
+}
@@ -0,0 +1,142 @@
+package com.demo.db.bachend.dm.pageCache;
+
+import com.demo.db.bachend.dm.page.Page;
+import com.demo.db.bachend.utils.Codec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 表空间按条带把页轮流分布到各目录的数据文件中：
+ * 检查每页落在哪个文件的哪个位置，跨条带的读取，重新打开和截断
+ *
+ * 每页的前8字节为页号，其余字节等于fill(页号)
+ */
+public class TablespacePageStoreTest {
+    private static final int STRIPE = 4;
+    private static final int FILES = 3;
+    private static final int PAGES = 50;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static byte fill(long pgNum) {
+        return (byte) (pgNum * 7 + 1);
+    }
+
+    private static ByteBuffer page(long pgNum) {
+        ByteBuffer buf = ByteBuffer.allocate(PageCache.PAGE_SIZE);
+        for(int i = 8; i < PageCache.PAGE_SIZE; i ++) {
+            buf.put(i, fill(pgNum));
+        }
+        Codec.putLong(buf, 0, pgNum);
+        return buf;
+    }
+
+    private static void check(ByteBuffer buf, int pos, long pgNum) {
+        assertEquals(pgNum, Codec.getLong(buf, pos));
+        for(int i = 8; i < PageCache.PAGE_SIZE; i ++) {
+            if(buf.get(pos + i) != fill(pgNum)) {
+                assertEquals("byte " + i + " of page " + pgNum, fill(pgNum), buf.get(pos + i));
+            }
+        }
+    }
+
+    private String[] dirs() {
+        String[] dirs = new String[FILES];
+        for(int i = 0; i < FILES; i ++) {
+            File d = new File(tmp.getRoot(), "disk" + i);
+            d.mkdirs();
+            dirs[i] = d.getPath();
+        }
+        return dirs;
+    }
+
+    private File dataFile(String[] dirs, int f) {
+        return new File(dirs[f], "ts." + f + PageCacheImpl.DB_SUFFIX);
+    }
+
+    @Test
+    public void testStriping() throws Exception {
+        String path = tmp.getRoot().getPath() + "/ts";
+        String[] dirs = dirs();
+        TablespacePageStore store = TablespacePageStore.create(path, STRIPE, dirs);
+        // 前一半逐页写入，后一半用跨条带的聚集写入
+        for(long i = 1; i <= PAGES / 2; i ++) {
+            store.write(i, page(i));
+        }
+        ByteBuffer[] srcs = new ByteBuffer[PAGES - PAGES / 2];
+        for(int i = 0; i < srcs.length; i ++) {
+            srcs[i] = page(PAGES / 2 + 1 + i);
+        }
+        store.write(PAGES / 2 + 1, srcs);
+        store.sync();
+        assertEquals(PAGES, store.pageCount());
+
+        // 第s个条带在第s % FILES个文件中，是该文件的第s / FILES个条带
+        for(long pg = 1; pg <= PAGES; pg ++) {
+            long stripe = (pg - 1) / STRIPE;
+            int f = (int) (stripe % FILES);
+            long local = (stripe / FILES) * STRIPE + (pg - 1) % STRIPE;
+            try(RandomAccessFile raf = new RandomAccessFile(dataFile(dirs, f), "r")) {
+                byte[] raw = new byte[PageCache.PAGE_SIZE];
+                raf.seek(local * PageCache.PAGE_SIZE);
+                raf.readFully(raw);
+                check(ByteBuffer.wrap(raw), 0, pg);
+            }
+        }
+
+        // 跨多个条带的读取，末尾超出已写入的页读出全0
+        ByteBuffer run = ByteBuffer.allocate((PAGES - 2 + 3) * PageCache.PAGE_SIZE);
+        store.read(3, run);
+        assertEquals(run.capacity(), run.position());
+        for(int k = 0; k < PAGES - 2; k ++) {
+            check(run, k * PageCache.PAGE_SIZE, 3 + k);
+        }
+        for(int i = (PAGES - 2) * PageCache.PAGE_SIZE; i < run.capacity(); i ++) {
+            assertEquals(0, run.get(i));
+        }
+        store.close();
+
+        TablespacePageStore reopened = TablespacePageStore.open(path);
+        assertEquals(PAGES, reopened.pageCount());
+        reopened.truncate(21);
+        assertEquals(21, reopened.pageCount());
+        ByteBuffer all = ByteBuffer.allocate(21 * PageCache.PAGE_SIZE);
+        reopened.read(1, all);
+        for(int k = 0; k < 21; k ++) {
+            check(all, k * PageCache.PAGE_SIZE, 1 + k);
+        }
+        // 页1-21占条带0-5，条带5只有1页
+        assertEquals(8L * PageCache.PAGE_SIZE, dataFile(dirs, 0).length());
+        assertEquals(8L * PageCache.PAGE_SIZE, dataFile(dirs, 1).length());
+        assertEquals(5L * PageCache.PAGE_SIZE, dataFile(dirs, 2).length());
+        reopened.close();
+    }
+
+    @Test
+    public void testThroughPageCache() throws Exception {
+        String path = tmp.getRoot().getPath() + "/ts";
+        long memory = 16L * PageCache.PAGE_SIZE;
+        PageCache pc = PageCache.create(path, memory, PageCacheConfig.defaults().tablespace(STRIPE, dirs()));
+        for(long i = 1; i <= PAGES; i ++) {
+            assertEquals(i, pc.newPage(page(i).array()));
+        }
+        pc.close();
+
+        PageCache reopened = PageCache.open(path, memory);
+        assertEquals(PAGES, reopened.getPageNum());
+        for(long i = 1; i <= PAGES; i ++) {
+            Page pg = reopened.getPage(i);
+            check(pg.getPageBuffer(), 0, i);
+            pg.release();
+        }
+        reopened.close();
+    }
+}
@@ -0,0 +1,129 @@
+package com.demo.db.bachend.tm;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * tid按块预留：崩溃后(不调用close直接重新打开)新分配的tid大于之前分配过的所有tid，
+ * 已提交和已撤销的状态保留，开始了但未结束的事务和预留未用的tid都视为aborted；
+ * 预留写了一半时打开截掉多出的部分
+ */
+public class TransactionManagerTest {
+    private static final int THREADS = 4;
+    private static final int TXNS_PER_THREAD = 700;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final byte COMMITTED = 1;
+    private static final byte ABORTED = 2;
+    private static final byte ACTIVE = 0;
+
+    private static void check(TransactionManager tm, long tid, byte status) {
+        assertEquals("tid " + tid, status == ACTIVE, tm.isActive(tid));
+        assertEquals("tid " + tid, status == COMMITTED, tm.isCommitted(tid));
+        assertEquals("tid " + tid, status == ABORTED, tm.isAborted(tid));
+    }
+
+    @Test
+    public void testReservationAcrossCrash() throws Exception {
+        String path = tmp.getRoot().getPath() + "/tm";
+        TransactionManager tm = TransactionManager.create(path);
+        ConcurrentHashMap<Long, Byte> issued = new ConcurrentHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> futures = new ArrayList<>();
+        for(int t = 0; t < THREADS; t ++) {
+            futures.add(pool.submit(() -> {
+                for(int i = 0; i < TXNS_PER_THREAD; i ++) {
+                    long tid = tm.begin();
+                    // 每三个事务提交一个、撤销一个、留一个不结束
+                    if(i % 3 == 0) {
+                        tm.commit(tid);
+                        issued.put(tid, COMMITTED);
+                    } else if(i % 3 == 1) {
+                        tm.abort(tid);
+                        issued.put(tid, ABORTED);
+                    } else {
+                        issued.put(tid, ACTIVE);
+                    }
+                }
+                return null;
+            }));
+        }
+        for(Future<Void> f : futures) {
+            f.get();
+        }
+        pool.shutdown();
+        long maxIssued = THREADS * TXNS_PER_THREAD;
+        assertEquals(maxIssued, issued.size());
+        for(long tid = 1; tid <= maxIssued; tid ++) {
+            check(tm, tid, issued.get(tid));
+        }
+        // 本块中预留而未分配的tid
+        assertTrue(maxIssued % TransactionManagerImpl.TID_BLOCK != 0);
+
+        // 不关闭，模拟崩溃后重新打开
+        TransactionManager reopened = TransactionManager.open(path);
+        for(long tid = 1; tid <= maxIssued; tid ++) {
+            byte status = issued.get(tid);
+            check(reopened, tid, status == ACTIVE ? ABORTED : status);
+        }
+        long next = reopened.begin();
+        assertTrue(next > maxIssued);
+        assertEquals(0, (next - 1) % TransactionManagerImpl.TID_BLOCK);
+        check(reopened, next, ACTIVE);
+        reopened.commit(next);
+        // 上一个实例预留但未分配的tid也是aborted
+        check(reopened, maxIssued + 1, ABORTED);
+        tm.close();
+
+        TransactionManager again = TransactionManager.open(path);
+        check(again, next, COMMITTED);
+        assertTrue(again.begin() > next);
+        again.close();
+        reopened.close();
+    }
+
+    @Test
+    public void testTornReservation() throws Exception {
+        String path = tmp.getRoot().getPath() + "/tm";
+        TransactionManager tm = TransactionManager.create(path);
+        long first = tm.begin();
+        tm.commit(first);
+        tm.close();
+
+        File f = new File(path + TransactionManagerImpl.TID_SUFFIX);
+        long length = f.length();
+        assertEquals(TransactionManagerImpl.LEN_TID_HEADER_LENGTH + TransactionManagerImpl.TID_BLOCK, length);
+        // 下一块的状态已写入，TidCounter未更新
+        try(RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek(length);
+            byte[] block = new byte[TransactionManagerImpl.TID_BLOCK];
+            Arrays.fill(block, ABORTED);
+            raf.write(block, 0, 100);
+        }
+
+        TransactionManager reopened = TransactionManager.open(path);
+        assertEquals(length, f.length());
+        check(reopened, first, COMMITTED);
+        long next = reopened.begin();
+        assertEquals(TransactionManagerImpl.TID_BLOCK + 1, next);
+        assertFalse(reopened.isAborted(next));
+        reopened.close();
+    }
+}
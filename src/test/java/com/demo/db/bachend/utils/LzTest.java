@@ -0,0 +1,101 @@
+package com.demo.db.bachend.utils;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 各种内容和长度的压缩-解压往返，不可压缩数据的输出上界，以及损坏或截断的输入
+ */
+public class LzTest {
+
+    private static byte[] roundTrip(byte[] src, int off, int len) {
+        byte[] packed = new byte[Lz.maxCompressedLength(len)];
+        int n = Lz.compress(src, off, len, packed);
+        assertTrue("compressed length exceeds bound", n <= packed.length);
+        byte[] out = new byte[len];
+        assertEquals(len, Lz.decompress(packed, 0, n, out, 0, len));
+        assertArrayEquals(Arrays.copyOfRange(src, off, off + len), out);
+        return Arrays.copyOf(packed, n);
+    }
+
+    @Test
+    public void testRandomData() {
+        Random r = new Random(1);
+        for(int len : new int[]{0, 1, 4, 5, 12, 13, 255, 256, 4096, 8192, 65536 + 100}) {
+            byte[] src = new byte[len];
+            r.nextBytes(src);
+            roundTrip(src, 0, len);
+        }
+    }
+
+    @Test
+    public void testCompressibleData() {
+        byte[] zeros = new byte[8192];
+        assertTrue(roundTrip(zeros, 0, zeros.length).length < 100);
+
+        byte[] text = new byte[8192];
+        byte[] word = "the quick brown fox jumps over the lazy dog ".getBytes(StandardCharsets.UTF_8);
+        for(int i = 0; i < text.length; i ++) {
+            text[i] = word[i % word.length];
+        }
+        assertTrue(roundTrip(text, 0, text.length).length < 1024);
+
+        // 长度超过15的字面量和匹配串都需要扩展长度字节
+        Random r = new Random(2);
+        byte[] mixed = new byte[8192];
+        for(int i = 0; i < mixed.length; i += 512) {
+            if((i / 512) % 2 == 0) {
+                byte[] chunk = new byte[300];
+                r.nextBytes(chunk);
+                System.arraycopy(chunk, 0, mixed, i, chunk.length);
+            }
+        }
+        roundTrip(mixed, 0, mixed.length);
+    }
+
+    @Test
+    public void testOffsetInput() {
+        Random r = new Random(3);
+        byte[] src = new byte[10000];
+        for(int i = 0; i < src.length; i ++) {
+            src[i] = (byte) (r.nextInt(4));
+        }
+        roundTrip(src, 1234, 5000);
+    }
+
+    @Test
+    public void testCorruptedInput() {
+        byte[] text = new byte[8192];
+        for(int i = 0; i < text.length; i ++) {
+            text[i] = (byte) (i % 97);
+        }
+        byte[] packed = roundTrip(text, 0, text.length);
+        byte[] out = new byte[text.length];
+
+        // 截断的输入
+        for(int cut = 1; cut < packed.length; cut ++) {
+            assertNotEquals(text.length, Lz.decompress(packed, 0, packed.length - cut, out, 0, out.length));
+        }
+        // 输出空间不足
+        assertEquals(-1, Lz.decompress(packed, 0, packed.length, out, 0, out.length - 1));
+        // 全是0xFF的输入，长度字节一直延续到末尾
+        byte[] garbage = new byte[512];
+        Arrays.fill(garbage, (byte) 0xFF);
+        assertEquals(-1, Lz.decompress(garbage, 0, garbage.length, out, 0, out.length));
+        // 任意字节都不应导致越界
+        Random r = new Random(4);
+        for(int i = 0; i < 1000; i ++) {
+            byte[] bad = packed.clone();
+            bad[r.nextInt(bad.length)] ^= (byte) (1 + r.nextInt(255));
+            Lz.decompress(bad, 0, bad.length, out, 0, out.length);
+        }
+    }
+}